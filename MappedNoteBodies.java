@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Note bodies of a snapshot file, memory-mapped and decoded on demand.
+ *
+ * The body region is mapped in segments of at most 2 GB, split at body
+ * boundaries so every body lies inside a single segment.
+ */
+final class MappedNoteBodies {
+    private static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+    private final MappedByteBuffer[] segments;
+    private final long[] segmentStarts;
+
+    private MappedNoteBodies(MappedByteBuffer[] segments, long[] segmentStarts) {
+        this.segments = segments;
+        this.segmentStarts = segmentStarts;
+    }
+
+    /**
+     * Map the bytes [start, end) of a file holding bodies laid out back to
+     * back in ascending offset order
+     */
+    static MappedNoteBodies map(FileChannel channel, long start, long end,
+            long[] offsets, int[] lengths) throws IOException {
+        List<Long> starts = new ArrayList<>();
+        long segmentStart = start;
+        starts.add(segmentStart);
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] + lengths[i] - segmentStart > MAX_SEGMENT_BYTES) {
+                segmentStart = offsets[i];
+                starts.add(segmentStart);
+            }
+        }
+
+        MappedByteBuffer[] segments = new MappedByteBuffer[starts.size()];
+        long[] segmentStarts = new long[starts.size()];
+        for (int i = 0; i < segments.length; i++) {
+            long from = starts.get(i);
+            long to = i + 1 < segments.length ? starts.get(i + 1) : end;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            segmentStarts[i] = from;
+        }
+        return new MappedNoteBodies(segments, segmentStarts);
+    }
+
+    Note.LazyBody body(long offset, int length) {
+        return new Body(offset, length);
+    }
+
+    private byte[] read(long offset, int length) {
+        int segment = Arrays.binarySearch(segmentStarts, offset);
+        if (segment < 0) {
+            segment = -segment - 2;
+        }
+        ByteBuffer view = segments[segment].duplicate();
+        view.position((int) (offset - segmentStarts[segment]));
+        byte[] bytes = new byte[length];
+        view.get(bytes);
+        return bytes;
+    }
+
+    private final class Body implements Note.LazyBody {
+        private final long offset;
+        private final int length;
+
+        Body(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public String decode() {
+            return new String(read(offset, length), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public byte[] utf8() {
+            return read(offset, length);
+        }
+    }
+}
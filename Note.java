@@ -1,9 +1,20 @@
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
- * Represents a single note with title, content, and creation/modification timestamps
+ * Represents a single note with title, content, creation/modification
+ * timestamps, tags and key/value metadata
  */
 public class Note implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -14,9 +25,32 @@ public class Note implements Serializable {
     private String content;
     private LocalDateTime createdAt;
     private LocalDateTime modifiedAt;
+    // Numeric form of id, see NoteId
+    private transient long key;
+    // Body kept outside the heap until it is read; null once content holds the body
+    private transient LazyBody lazyBody;
+    // Sorted and unmodifiable; empty rather than null
+    private transient Set<String> tags = Collections.emptySet();
+    private transient Map<String, String> metadata = Collections.emptyMap();
+    
+    /**
+     * A note body stored outside the heap and decoded on demand
+     */
+    interface LazyBody {
+        String decode();
+        byte[] utf8();
+        
+        /**
+         * Decode for a one-off read that should not displace cached bodies
+         */
+        default String decodeOnce() {
+            return decode();
+        }
+    }
     
     public Note(String title, String content) {
-        this.id = generateId();
+        this.key = NoteId.next();
+        this.id = NoteId.format(key);
         this.title = title;
         this.content = content;
         this.createdAt = LocalDateTime.now();
@@ -25,32 +59,135 @@ public class Note implements Serializable {
     
     public Note(String id, String title, String content, LocalDateTime createdAt, LocalDateTime modifiedAt) {
         this.id = id;
+        this.key = NoteId.key(id);
         this.title = title;
         this.content = content;
         this.createdAt = createdAt;
         this.modifiedAt = modifiedAt;
     }
     
-    private String generateId() {
-        return "note_" + System.currentTimeMillis() + "_" + (int)(Math.random() * 1000);
+    public Note(String id, String title, String content, LocalDateTime createdAt, LocalDateTime modifiedAt,
+            Collection<String> tags, Map<String, String> metadata) {
+        this(id, title, content, createdAt, modifiedAt);
+        setAttributes(tags, metadata);
+    }
+    
+    Note(String id, String title, LazyBody body, LocalDateTime createdAt, LocalDateTime modifiedAt) {
+        this.id = id;
+        this.key = NoteId.key(id);
+        this.title = title;
+        this.lazyBody = body;
+        this.createdAt = createdAt;
+        this.modifiedAt = modifiedAt;
     }
     
     // Getters
     public String getId() { return id; }
+    public long getKey() { return key; }
     public String getTitle() { return title; }
-    public String getContent() { return content; }
+    public String getContent() { return content != null ? content : lazyBody.decode(); }
     public LocalDateTime getCreatedAt() { return createdAt; }
     public LocalDateTime getModifiedAt() { return modifiedAt; }
+    public Set<String> getTags() { return tags; }
+    public Map<String, String> getMetadata() { return metadata; }
     
-    // Setters
-    public void setTitle(String title) {
-        this.title = title;
-        this.modifiedAt = LocalDateTime.now();
+    /**
+     * Body for a bulk pass such as indexing, search or export, read without
+     * filling the body cache
+     */
+    String scanContent() {
+        return content != null ? content : lazyBody.decodeOnce();
     }
     
-    public void setContent(String content) {
-        this.content = content;
-        this.modifiedAt = LocalDateTime.now();
+    /**
+     * Whether the body is held on the heap rather than decoded on each read
+     */
+    public boolean isContentLoaded() {
+        return content != null;
+    }
+    
+    /**
+     * Body as UTF-8, copied straight from storage when it is not loaded
+     */
+    byte[] getContentUtf8() {
+        return content != null ? content.getBytes(StandardCharsets.UTF_8) : lazyBody.utf8();
+    }
+    
+    /**
+     * Body in its stored form, or null once it is held as a string
+     */
+    LazyBody getLazyBody() {
+        return lazyBody;
+    }
+    
+    /**
+     * Set tags and metadata on a note that is not yet shared. Tags and keys
+     * are trimmed and blank ones dropped.
+     */
+    void setAttributes(Collection<String> tags, Map<String, String> metadata) {
+        this.tags = normalizeTags(tags);
+        this.metadata = normalizeMetadata(metadata);
+    }
+    
+    /**
+     * Take the tags and metadata of another note
+     */
+    void copyAttributes(Note other) {
+        this.tags = other.tags;
+        this.metadata = other.metadata;
+    }
+    
+    /**
+     * Copy of this note sharing its (immutable) body and attributes
+     */
+    Note copy() {
+        Note copy = new Note(id, title, content, createdAt, modifiedAt);
+        copy.lazyBody = lazyBody;
+        copy.copyAttributes(this);
+        return copy;
+    }
+    
+    static Set<String> normalizeTags(Collection<String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> sorted = new TreeSet<>();
+        for (String tag : tags) {
+            if (tag != null && !tag.trim().isEmpty()) {
+                sorted.add(tag.trim());
+            }
+        }
+        return sorted.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(sorted);
+    }
+    
+    static Map<String, String> normalizeMetadata(Map<String, String> metadata) {
+        if (metadata == null || metadata.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> sorted = new TreeMap<>();
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            if (entry.getKey() != null && !entry.getKey().trim().isEmpty() && entry.getValue() != null) {
+                sorted.put(entry.getKey().trim(), entry.getValue());
+            }
+        }
+        return sorted.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(sorted);
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", id);
+        fields.put("title", title);
+        fields.put("content", getContent());
+        fields.put("createdAt", createdAt);
+        fields.put("modifiedAt", modifiedAt);
+        out.writeFields();
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        key = NoteId.key(id);
+        tags = Collections.emptySet();
+        metadata = Collections.emptyMap();
     }
     
     public String getFormattedCreatedAt() {
@@ -71,11 +208,11 @@ public class Note implements Serializable {
         if (this == obj) return true;
         if (obj == null || getClass() != obj.getClass()) return false;
         Note note = (Note) obj;
-        return id.equals(note.id);
+        return key == note.key && id.equals(note.id);
     }
     
     @Override
     public int hashCode() {
-        return id.hashCode();
+        return Long.hashCode(key);
     }
 }
\ No newline at end of file
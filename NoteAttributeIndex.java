@@ -0,0 +1,184 @@
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Secondary indexes over note tags, metadata and timestamps.
+ *
+ * Every indexed note holds a small int slot, reused once the note is
+ * removed, and each tag and metadata key/value pair maps to a
+ * {@link NoteBitmap} of the slots carrying it. Creation and modification
+ * times sit in {@link NoteTimeIndex}es keyed by slot, which turn a time
+ * range into a bitmap too. A combined filter is then an intersection of
+ * bitmaps instead of a pass over every note.
+ */
+public class NoteAttributeIndex {
+    private final Map<String, Integer> slots = new HashMap<>();
+    private Note[] notes = new Note[1024];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int nextSlot;
+    private NoteBitmap all = new NoteBitmap();
+    private final Map<String, NoteBitmap> byTag = new HashMap<>();
+    private final Map<String, Map<String, NoteBitmap>> byMetadata = new HashMap<>();
+    private final NoteTimeIndex byCreated = new NoteTimeIndex();
+    private final NoteTimeIndex byModified = new NoteTimeIndex();
+
+    public void add(Note note) {
+        if (slots.containsKey(note.getId())) {
+            remove(note);
+        }
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : nextSlot++;
+        if (slot == notes.length) {
+            notes = Arrays.copyOf(notes, notes.length * 2);
+        }
+        notes[slot] = note;
+        slots.put(note.getId(), slot);
+        all.add(slot);
+        for (String tag : note.getTags()) {
+            byTag.computeIfAbsent(tag, t -> new NoteBitmap()).add(slot);
+        }
+        for (Map.Entry<String, String> entry : note.getMetadata().entrySet()) {
+            byMetadata.computeIfAbsent(entry.getKey(), k -> new HashMap<>())
+                    .computeIfAbsent(entry.getValue(), v -> new NoteBitmap()).add(slot);
+        }
+        byCreated.add(NoteCodec.toEpochNanos(note.getCreatedAt()), slot);
+        byModified.add(NoteCodec.toEpochNanos(note.getModifiedAt()), slot);
+    }
+
+    /**
+     * Remove the note indexed under a note's id
+     */
+    public void remove(Note note) {
+        Integer slot = slots.remove(note.getId());
+        if (slot == null) {
+            return;
+        }
+        Note indexed = notes[slot];
+        notes[slot] = null;
+        all.remove(slot);
+        for (String tag : indexed.getTags()) {
+            removeFrom(byTag, tag, slot);
+        }
+        for (Map.Entry<String, String> entry : indexed.getMetadata().entrySet()) {
+            Map<String, NoteBitmap> values = byMetadata.get(entry.getKey());
+            removeFrom(values, entry.getValue(), slot);
+            if (values.isEmpty()) {
+                byMetadata.remove(entry.getKey());
+            }
+        }
+        byCreated.remove(NoteCodec.toEpochNanos(indexed.getCreatedAt()), slot);
+        byModified.remove(NoteCodec.toEpochNanos(indexed.getModifiedAt()), slot);
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    public void clear() {
+        slots.clear();
+        notes = new Note[1024];
+        freeCount = 0;
+        nextSlot = 0;
+        all = new NoteBitmap();
+        byTag.clear();
+        byMetadata.clear();
+        byCreated.clear();
+        byModified.clear();
+    }
+
+    /**
+     * Slots of the notes matching a filter's tags, metadata and time range;
+     * the text query is left to the caller
+     */
+    public NoteBitmap match(NoteFilter filter) {
+        NoteBitmap result = all;
+        for (String tag : filter.getTags()) {
+            result = NoteBitmap.and(result, byTag.getOrDefault(tag, new NoteBitmap()));
+        }
+        for (Map.Entry<String, String> entry : filter.getMetadata().entrySet()) {
+            NoteBitmap values = byMetadata.getOrDefault(entry.getKey(), Collections.emptyMap()).get(entry.getValue());
+            result = NoteBitmap.and(result, values != null ? values : new NoteBitmap());
+        }
+        if (filter.hasCreatedRange()) {
+            result = NoteBitmap.and(result, between(byCreated, filter.getCreatedFrom(), filter.getCreatedTo()));
+        }
+        if (filter.hasModifiedRange()) {
+            result = NoteBitmap.and(result, between(byModified, filter.getModifiedFrom(), filter.getModifiedTo()));
+        }
+        return result == all ? NoteBitmap.or(all, new NoteBitmap()) : result;
+    }
+
+    /**
+     * Slots of every indexed note
+     */
+    public NoteBitmap all() {
+        return all;
+    }
+
+    public int slotOf(String id) {
+        Integer slot = slots.get(id);
+        return slot != null ? slot : -1;
+    }
+
+    public Note note(int slot) {
+        return notes[slot];
+    }
+
+    /**
+     * Notes in a set of slots, in slot order
+     */
+    public List<Note> notes(NoteBitmap matched) {
+        List<Note> result = new ArrayList<>(matched.cardinality());
+        matched.forEach(slot -> result.add(notes[slot]));
+        return result;
+    }
+
+    /**
+     * How many notes within a set of slots carry each tag, by tag name
+     */
+    public Map<String, Integer> tagCounts(NoteBitmap within) {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (Map.Entry<String, NoteBitmap> entry : byTag.entrySet()) {
+            int count = NoteBitmap.andCardinality(entry.getValue(), within);
+            if (count > 0) {
+                counts.put(entry.getKey(), count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Index of creation or modification times
+     */
+    public NoteTimeIndex times(NoteTimeHistogram.Field field) {
+        return field == NoteTimeHistogram.Field.CREATED ? byCreated : byModified;
+    }
+
+    /**
+     * Number of notes created or modified from {@code from} (inclusive) to
+     * {@code to} (exclusive), null ends open
+     */
+    public int count(NoteTimeHistogram.Field field, LocalDateTime from, LocalDateTime to) {
+        return times(field).count(timeKey(from, Long.MIN_VALUE), timeKey(to, Long.MAX_VALUE));
+    }
+
+    /**
+     * Epoch key of a time as stored in the time indexes, with null as an
+     * open end
+     */
+    private static long timeKey(LocalDateTime time, long open) {
+        return time != null ? NoteCodec.toEpochNanos(time) : open;
+    }
+
+    private static NoteBitmap between(NoteTimeIndex index, LocalDateTime from, LocalDateTime to) {
+        return index.slots(timeKey(from, Long.MIN_VALUE), timeKey(to, Long.MAX_VALUE));
+    }
+
+    private static <K> void removeFrom(Map<K, NoteBitmap> bitmaps, K key, int slot) {
+        NoteBitmap bitmap = bitmaps.get(key);
+        bitmap.remove(slot);
+        if (bitmap.isEmpty()) {
+            bitmaps.remove(key);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import javax.swing.Timer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Schedules saves of edited notes on the event dispatch thread.
+ *
+ * Each change registers a saver for its note. The pending savers run
+ * together once the user has been idle for {@code idleMillis}, or at the
+ * latest {@code maxDelayMillis} after the first unsaved change, so a long
+ * typing streak still reaches the disk. Edits to several notes made within
+ * that window are saved in one pass and reach the note log as one batch.
+ * A saver decides for itself whether anything changed and returns whether
+ * it wrote anything; a note edited back to its saved text costs nothing.
+ */
+public class NoteAutosave {
+    private final Map<Object, BooleanSupplier> pending = new LinkedHashMap<>();
+    private final Timer idle;
+    private final Timer deadline;
+    private final Runnable afterFlush;
+
+    /**
+     * A scheduler that runs {@code afterFlush} after each pass in which a
+     * saver wrote something
+     */
+    public NoteAutosave(int idleMillis, int maxDelayMillis, Runnable afterFlush) {
+        this.afterFlush = afterFlush;
+        idle = new Timer(idleMillis, e -> flush());
+        idle.setRepeats(false);
+        deadline = new Timer(maxDelayMillis, e -> flush());
+        deadline.setRepeats(false);
+    }
+
+    /**
+     * Note that {@code key} changed and should be saved by {@code saver},
+     * replacing any saver queued for it before
+     */
+    public void changed(Object key, BooleanSupplier saver) {
+        pending.put(key, saver);
+        idle.restart();
+        if (!deadline.isRunning()) {
+            deadline.start();
+        }
+    }
+
+    /**
+     * Drop the queued save of a note, e.g. one just deleted
+     */
+    public void cancel(Object key) {
+        pending.remove(key);
+        if (pending.isEmpty()) {
+            stop();
+        }
+    }
+
+    public boolean isPending(Object key) {
+        return pending.containsKey(key);
+    }
+
+    public boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Run every queued saver now
+     */
+    public void flush() {
+        stop();
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<BooleanSupplier> savers = new ArrayList<>(pending.values());
+        pending.clear();
+        boolean saved = false;
+        for (BooleanSupplier saver : savers) {
+            saved |= saver.getAsBoolean();
+        }
+        if (saved) {
+            afterFlush.run();
+        }
+    }
+
+    private void stop() {
+        idle.stop();
+        deadline.stop();
+    }
+}
@@ -0,0 +1,661 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks for NoteManager.
+ *
+ * Usage:
+ *   java NoteBenchmark persistence [noteCount]
+ *       Compares the binary snapshot format, with bodies decoded eagerly or
+ *       left memory-mapped, against the old ObjectOutputStream format: save
+ *       and load throughput and file size.
+ *   java NoteBenchmark manager [sizes]
+ *       Runs CRUD, lookup, substring and ranked search (by query type,
+ *       including typos), sorted listing, flush and reopen against corpora
+ *       of the given comma-separated sizes (default 1000,10000,100000; up
+ *       to 1000000 with a large heap).
+ *       Bodies follow a log-normal length distribution over a Zipfian
+ *       vocabulary. Reports throughput, p50/p99/p99.9 latency and bytes
+ *       allocated per operation on the calling thread.
+ *   java NoteBenchmark concurrency [threads]
+ *       Hammers one NoteManager with mixed CRUD, listing and search from
+ *       many threads (default 1000 virtual threads on Java 21+, else four
+ *       platform threads per core). Writers also contend on a few shared
+ *       notes. Reports write and read throughput; the
+ *       consistency checks for the same workload are in
+ *       NoteManagerConcurrencyTest.
+ *   java NoteBenchmark parallel [noteCount]
+ *       Loads one snapshot and runs substring searches in the parallel scan
+ *       mode at 1, 2, 4, ... threads up to the number of cores. Reports
+ *       load and search times and the speedup over a single thread.
+ *   java NoteBenchmark server [clients]
+ *       Starts a NoteServer on a loopback port and has many clients, each
+ *       on one keep-alive connection, send pipelined batches of lookups,
+ *       listings, searches, creates and updates. Reports requests per
+ *       second, batch latency and failed requests.
+ */
+public class NoteBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final int TOTAL_WRITES = 100000;
+    private static final int MIN_OPS_PER_WRITER = 100;
+    private static final int SHARED_NOTES = 8;
+    private static final boolean VIRTUAL_THREADS = hasVirtualThreads();
+    private static final int SERVER_NOTES = 10000;
+    private static final int BATCHES_PER_CLIENT = 50;
+    private static final int PIPELINE_DEPTH = 4;
+
+    private static final int VOCABULARY_SIZE = 5000;
+    private static final String[] VOCABULARY = buildVocabulary(VOCABULARY_SIZE, new Random(7));
+    private static final double[] ZIPF_CUMULATIVE = zipfCumulative(VOCABULARY_SIZE);
+
+    private interface Format {
+        void save(List<Note> notes, File file) throws Exception;
+        List<Note> load(File file) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String scenario = args.length > 0 ? args[0] : "persistence";
+        switch (scenario) {
+            case "persistence":
+                persistence(args.length > 1 ? Integer.parseInt(args[1]) : 20000);
+                break;
+            case "manager":
+                manager(args.length > 1 ? args[1] : "1000,10000,100000");
+                break;
+            case "concurrency":
+                concurrency(args.length > 1 ? Integer.parseInt(args[1])
+                        : VIRTUAL_THREADS ? 1000 : 4 * Runtime.getRuntime().availableProcessors());
+                break;
+            case "parallel":
+                parallel(args.length > 1 ? Integer.parseInt(args[1]) : 200000);
+                break;
+            case "server":
+                server(args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+                break;
+            default:
+                System.err.println("Unknown scenario: " + scenario);
+                System.err.println("Scenarios: persistence [noteCount], manager [sizes], concurrency [threads], parallel [noteCount], server [clients]");
+        }
+    }
+
+    private static void persistence(int count) throws Exception {
+        List<Note> notes = generateNotes(count, new Random(42));
+        File dir = createTempDirectory();
+
+        System.out.println("Notes: " + count);
+        System.out.printf("%-15s %12s %12s %12s%n", "format", "save MB/s", "load MB/s", "size KB");
+        run("serialized", new Format() {
+            public void save(List<Note> notes, File file) throws Exception {
+                try (ObjectOutputStream out = new ObjectOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+                    out.writeObject(new ArrayList<>(notes));
+                }
+            }
+
+            @SuppressWarnings("unchecked")
+            public List<Note> load(File file) throws Exception {
+                try (ObjectInputStream in = new ObjectInputStream(
+                        new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+                    return (List<Note>) in.readObject();
+                }
+            }
+        }, notes, new File(dir, "legacy.dat"));
+        run("binary", new Format() {
+            public void save(List<Note> notes, File file) throws Exception {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+                    NoteCodec.writeSnapshot(out, notes);
+                }
+            }
+
+            public List<Note> load(File file) throws Exception {
+                return NoteCodec.readSnapshot(file, false);
+            }
+        }, notes, new File(dir, "binary.dat"));
+        run("binary-lazy", new Format() {
+            public void save(List<Note> notes, File file) throws Exception {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+                    NoteCodec.writeSnapshot(out, notes);
+                }
+            }
+
+            public List<Note> load(File file) throws Exception {
+                return NoteCodec.readSnapshot(file, true);
+            }
+        }, notes, new File(dir, "lazy.dat"));
+        NoteCompression compression = new NoteCompression(
+                new NoteManagerConfig().getCompressionThreshold(), new NoteBodyCache(new NoteManagerConfig().getBodyCacheBytes()));
+        run("binary-deflate", new Format() {
+            public void save(List<Note> notes, File file) throws Exception {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+                    NoteCodec.writeSnapshot(out, notes, compression);
+                }
+            }
+
+            public List<Note> load(File file) throws Exception {
+                return NoteCodec.readSnapshot(file, false, compression, null);
+            }
+        }, notes, new File(dir, "deflate.dat"));
+
+        deleteDirectory(dir);
+    }
+
+    /**
+     * One benchmarked operation; {@code i} counts calls across warmup and
+     * measurement
+     */
+    private interface Operation {
+        void run(int i) throws Exception;
+    }
+
+    private static void manager(String sizes) throws Exception {
+        System.out.printf("%-16s %9s %12s %10s %10s %10s %12s%n",
+                "operation", "notes", "ops/s", "p50 us", "p99 us", "p99.9 us", "alloc B/op");
+        for (String sizeArg : sizes.split(",")) {
+            int size = Integer.parseInt(sizeArg.trim());
+            Random random = new Random(size);
+            File dir = createTempDirectory();
+            NoteManagerConfig config = new NoteManagerConfig().dataDirectory(dir);
+            NoteManager manager = new NoteManager(config);
+            List<String> ids = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                ids.add(manager.addNote(randomTitle(random, i), randomBody(random)).getId());
+            }
+            manager.flush().get();
+            int cheapOps = 5000;
+            int searchOps = 50;
+            int scanOps = Math.max(5, 200_000 / size);
+
+            List<String> added = new ArrayList<>();
+            measure("findNoteById", size, cheapOps, i -> manager.findNoteById(ids.get(random.nextInt(size))));
+            measure("addNote", size, cheapOps,
+                    i -> added.add(manager.addNote(randomTitle(random, size + i), randomBody(random)).getId()));
+            measure("updateNote", size, cheapOps,
+                    i -> manager.updateNote(ids.get(random.nextInt(size)), randomTitle(random, i), randomBody(random)));
+            measure("deleteNote", size, Math.min(cheapOps, added.size()) / 2,
+                    i -> manager.deleteNote(added.get(i)));
+            for (String queryType : new String[] { "common", "rare", "phrase", "short", "miss" }) {
+                measure("search/" + queryType, size, searchOps,
+                        i -> manager.searchNotes(randomQuery(random, queryType)));
+            }
+            for (String queryType : new String[] { "common", "rare", "phrase", "typo", "miss" }) {
+                measure("ranked/" + queryType, size, searchOps,
+                        i -> manager.searchRanked(randomQuery(random, queryType), 20));
+            }
+            measure("sorted/full", size, scanOps, i -> manager.getNotesSortedByDate());
+            measure("sorted/page", size, cheapOps,
+                    i -> manager.getNotesSortedByDate(random.nextInt(size), 50));
+            measure("update+flush", size, 20, i -> {
+                manager.updateNote(ids.get(random.nextInt(size)), randomTitle(random, i), randomBody(random));
+                manager.flush().get();
+            });
+            manager.close();
+            measure("reopen", size, 3, i -> new NoteManager(config).close());
+            deleteDirectory(dir);
+        }
+    }
+
+    /**
+     * Run an operation for a warmup of the same length, then time each call
+     */
+    private static void measure(String name, int size, int ops, Operation operation) throws Exception {
+        for (int i = 0; i < ops; i++) {
+            operation.run(i);
+        }
+        long[] latencies = new long[ops];
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            long opStart = System.nanoTime();
+            operation.run(ops + i);
+            latencies[i] = System.nanoTime() - opStart;
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        Arrays.sort(latencies);
+        System.out.printf("%-16s %9d %12.0f %10.1f %10.1f %10.1f %12d%n", name, size,
+                ops / (elapsed / 1e9), percentile(latencies, 0.50) / 1e3,
+                percentile(latencies, 0.99) / 1e3, percentile(latencies, 0.999) / 1e3, allocated / ops);
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void concurrency(int threads) throws Exception {
+        File dir = createTempDirectory();
+        NoteManager manager = new NoteManager(new NoteManagerConfig().dataDirectory(dir));
+        // Each reader lists every note, so a few keep the writers busy enough
+        int readers = Math.max(1, threads / 8);
+        int writers = Math.max(1, threads - readers);
+        int opsPerWriter = Math.max(MIN_OPS_PER_WRITER, TOTAL_WRITES / writers);
+        List<String> shared = new ArrayList<>();
+        for (int i = 0; i < SHARED_NOTES; i++) {
+            shared.add(manager.addNote("shared " + i + " by #0", "#0 body").getId());
+        }
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        List<Callable<Void>> tasks = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            long seed = w;
+            tasks.add(() -> {
+                Random random = new Random(seed);
+                List<String> ids = new ArrayList<>();
+                for (int i = 0; i < opsPerWriter; i++) {
+                    int op = random.nextInt(10);
+                    if (op < 4 || ids.isEmpty()) {
+                        ids.add(manager.addNote("w" + seed + " note " + i, "body " + i).getId());
+                    } else if (op < 6) {
+                        String id = ids.get(random.nextInt(ids.size()));
+                        manager.updateNote(id, "w" + seed + " edit " + i, "edited " + i);
+                    } else if (op < 7) {
+                        // Contended: every writer rewrites the same few notes
+                        String token = "#" + seed + "." + i;
+                        String id = shared.get(random.nextInt(shared.size()));
+                        manager.updateNote(id, "shared by " + token, token + " body");
+                    } else if (op < 8) {
+                        manager.deleteNote(ids.remove(random.nextInt(ids.size())));
+                    } else {
+                        manager.findNoteById(ids.get(random.nextInt(ids.size())));
+                    }
+                }
+                return null;
+            });
+        }
+        for (int r = 0; r < readers; r++) {
+            tasks.add(() -> {
+                while (writing.get()) {
+                    manager.getNotesSortedByDate();
+                    for (String id : shared) {
+                        manager.findNoteById(id);
+                    }
+                    manager.searchNotes("edit");
+                    reads.incrementAndGet();
+                }
+                return null;
+            });
+        }
+
+        List<Throwable> failures = new ArrayList<>();
+        ExecutorService executor = newTaskExecutor();
+        long start = System.nanoTime();
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Callable<Void> task : tasks) {
+            futures.add(executor.submit(task));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            if (i == writers) {
+                writing.set(false);
+            }
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                failures.add(e.getCause());
+            }
+        }
+        writing.set(false);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+        manager.close();
+        deleteDirectory(dir);
+
+        System.out.printf("%d writers, %d readers on %s threads: %.0f writes/s, %.0f listings+searches/s, %d failures%n",
+                writers, readers, VIRTUAL_THREADS ? "virtual" : "platform",
+                writers * (double) opsPerWriter / seconds, reads.get() / seconds, failures.size());
+        for (Throwable failure : failures) {
+            System.out.println("  " + failure);
+        }
+    }
+
+    /**
+     * A virtual thread per task where the JVM has them (Java 21+), so the
+     * concurrency scenario can run thousands of workers; else a platform
+     * thread each
+     */
+    private static ExecutorService newTaskExecutor() {
+        if (VIRTUAL_THREADS) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            ((ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null)).shutdown();
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static void parallel(int count) throws Exception {
+        File dir = createTempDirectory();
+        File file = new File(dir, "notes.dat");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            NoteCodec.writeSnapshot(out, generateNotes(count, new Random(42)));
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> levels = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            levels.add(threads);
+        }
+        levels.add(cores);
+        int searches = 20;
+
+        System.out.println("Notes: " + count + ", snapshot: " + file.length() / 1024 + " KB, cores: " + cores);
+        System.out.printf("%-8s %10s %8s %12s %8s%n", "threads", "load ms", "speedup", "search ms", "speedup");
+        double baseLoad = 0;
+        double baseSearch = 0;
+        for (int threads : levels) {
+            ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+            long loadNanos = 0;
+            for (int i = 0; i < WARMUP_ROUNDS + MEASURED_ROUNDS; i++) {
+                long start = System.nanoTime();
+                NoteCodec.readSnapshot(file, false, null, null, pool);
+                if (i >= WARMUP_ROUNDS) {
+                    loadNanos += System.nanoTime() - start;
+                }
+            }
+            if (pool != null) {
+                pool.shutdown();
+            }
+
+            NoteManager manager = new NoteManager(new NoteManagerConfig().dataDirectory(dir)
+                    .parallelism(threads).scanSearch(true));
+            Random random = new Random(threads);
+            String[] types = { "common", "rare", "short" };
+            for (int i = 0; i < searches; i++) {
+                manager.searchNotes(randomQuery(random, types[i % types.length]));
+            }
+            long searchNanos = 0;
+            for (int i = 0; i < searches; i++) {
+                String query = randomQuery(random, types[i % types.length]);
+                long start = System.nanoTime();
+                manager.searchNotes(query);
+                searchNanos += System.nanoTime() - start;
+            }
+            manager.close();
+
+            double loadMillis = loadNanos / 1e6 / MEASURED_ROUNDS;
+            double searchMillis = searchNanos / 1e6 / searches;
+            if (threads == 1) {
+                baseLoad = loadMillis;
+                baseSearch = searchMillis;
+            }
+            System.out.printf("%-8d %10.1f %8.2f %12.2f %8.2f%n", threads,
+                    loadMillis, baseLoad / loadMillis, searchMillis, baseSearch / searchMillis);
+        }
+        deleteDirectory(dir);
+    }
+
+    private static void server(int clients) throws Exception {
+        File dir = createTempDirectory();
+        NoteManager manager = new NoteManager(new NoteManagerConfig().dataDirectory(dir));
+        Random seed = new Random(18);
+        List<String> ids = new ArrayList<>(SERVER_NOTES);
+        for (int i = 0; i < SERVER_NOTES; i++) {
+            ids.add(manager.addNote(randomTitle(seed, i), randomBody(seed)).getId());
+        }
+        manager.flush().get();
+        NoteServer server = new NoteServer(manager, new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+
+        long[] latencies = new long[clients * BATCHES_PER_CLIENT];
+        AtomicLong failed = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            workers.add(new Thread(null, () -> {
+                Random random = new Random(client);
+                try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                    socket.setTcpNoDelay(true);
+                    OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                    InputStream in = new BufferedInputStream(socket.getInputStream());
+                    for (int b = 0; b < BATCHES_PER_CLIENT; b++) {
+                        long batchStart = System.nanoTime();
+                        for (int r = 0; r < PIPELINE_DEPTH; r++) {
+                            // 60% lookups, 20% pages, 2% searches, 14% creates, 4% updates
+                            int op = random.nextInt(50);
+                            String id = ids.get(random.nextInt(ids.size()));
+                            if (op < 30) {
+                                writeRequest(out, "GET", "/notes/" + id, null);
+                            } else if (op < 40) {
+                                writeRequest(out, "GET", "/notes?offset=" + random.nextInt(SERVER_NOTES) + "&limit=20", null);
+                            } else if (op < 41) {
+                                writeRequest(out, "GET", "/notes?q=" + randomQuery(random, "rare") + "&limit=20", null);
+                            } else if (op < 48) {
+                                writeRequest(out, "POST", "/notes", "{\"title\":\"client " + client + "\",\"content\":\"batch " + b + "\"}");
+                            } else {
+                                writeRequest(out, "PUT", "/notes/" + id, "{\"content\":\"edited by " + client + "\"}");
+                            }
+                        }
+                        out.flush();
+                        for (int r = 0; r < PIPELINE_DEPTH; r++) {
+                            int status = readResponse(in);
+                            if (status < 200 || status >= 300) {
+                                failed.incrementAndGet();
+                            }
+                        }
+                        latencies[client * BATCHES_PER_CLIENT + b] = System.nanoTime() - batchStart;
+                    }
+                } catch (IOException e) {
+                    failures.add(e);
+                }
+            }, "client-" + c, 256 * 1024));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        server.close();
+        manager.flush().get();
+        System.out.print(manager.getMetrics().report());
+        manager.close();
+        deleteDirectory(dir);
+
+        Arrays.sort(latencies);
+        long requests = (long) clients * BATCHES_PER_CLIENT * PIPELINE_DEPTH;
+        System.out.printf("%d clients, %d requests in batches of %d: %.0f requests/s, batch p50 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, %d failed requests, %d failed clients%n",
+                clients, requests, PIPELINE_DEPTH, requests / seconds, percentile(latencies, 0.50) / 1e6,
+                percentile(latencies, 0.99) / 1e6, percentile(latencies, 0.999) / 1e6, failed.get(), failures.size());
+        for (Throwable failure : failures.subList(0, Math.min(5, failures.size()))) {
+            System.out.println("  " + failure);
+        }
+    }
+
+    private static void writeRequest(OutputStream out, String method, String path, String body) throws IOException {
+        byte[] bytes = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+        String head = method + " " + path + " HTTP/1.1\r\nHost: localhost\r\n"
+                + (body == null ? "" : "Content-Type: application/json\r\nContent-Length: " + bytes.length + "\r\n")
+                + "\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+    }
+
+    /**
+     * Read one response, discarding its body, and return the status code
+     */
+    private static int readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        int status = Integer.parseInt(statusLine.split(" ")[1]);
+        long length = 0;
+        for (String header = readLine(in); !header.isEmpty(); header = readLine(in)) {
+            if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                length = Long.parseLong(header.substring(15).trim());
+            }
+        }
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Connection closed mid-response");
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+        return status;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new EOFException("Connection closed");
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    private static File createTempDirectory() throws IOException {
+        return java.nio.file.Files.createTempDirectory("note-bench").toFile();
+    }
+
+    private static void deleteDirectory(File dir) {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static void run(String name, Format format, List<Note> notes, File file) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            format.save(notes, file);
+            format.load(file);
+        }
+        long saveNanos = 0;
+        long loadNanos = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            format.save(notes, file);
+            saveNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            format.load(file);
+            loadNanos += System.nanoTime() - start;
+        }
+        double megabytes = file.length() * (double) MEASURED_ROUNDS / (1024 * 1024);
+        System.out.printf("%-15s %12.1f %12.1f %12d%n", name,
+                megabytes / (saveNanos / 1e9), megabytes / (loadNanos / 1e9), file.length() / 1024);
+    }
+
+    /**
+     * Notes with realistic titles and body lengths
+     */
+    static List<Note> generateNotes(int count, Random random) {
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 0, 0);
+        List<Note> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            LocalDateTime created = base.plusMinutes(random.nextInt(500000));
+            notes.add(new Note("note_" + i, randomTitle(random, i), randomBody(random),
+                    created, created.plusMinutes(random.nextInt(10000))));
+        }
+        return notes;
+    }
+
+    static String randomTitle(Random random, int i) {
+        return randomWord(random) + " " + randomWord(random) + " " + i;
+    }
+
+    /**
+     * Body whose word count is log-normal (median about 60 words, long
+     * tail of multi-page notes) over a Zipfian vocabulary
+     */
+    static String randomBody(Random random) {
+        int words = (int) Math.min(30000, Math.round(Math.exp(Math.log(60) + 1.1 * random.nextGaussian())));
+        StringBuilder body = new StringBuilder(words * 8);
+        for (int w = 0; w < words; w++) {
+            body.append(randomWord(random)).append(w % 12 == 11 ? '\n' : ' ');
+        }
+        return body.toString();
+    }
+
+    static String randomQuery(Random random, String type) {
+        switch (type) {
+            case "common":
+                return VOCABULARY[random.nextInt(10)];
+            case "rare":
+                return VOCABULARY[VOCABULARY_SIZE - 1 - random.nextInt(VOCABULARY_SIZE / 2)];
+            case "phrase":
+                return randomWord(random) + " " + randomWord(random);
+            case "short":
+                return VOCABULARY[random.nextInt(100)].substring(0, 2);
+            case "typo": {
+                // A frequent word with one letter replaced
+                String word = VOCABULARY[random.nextInt(200)];
+                while (word.length() < 4) {
+                    word = VOCABULARY[random.nextInt(200)];
+                }
+                int at = random.nextInt(word.length());
+                return word.substring(0, at) + 'z' + word.substring(at + 1);
+            }
+            default:
+                return "zqxjv" + random.nextInt(100);
+        }
+    }
+
+    private static String randomWord(Random random) {
+        int index = Arrays.binarySearch(ZIPF_CUMULATIVE, random.nextDouble());
+        return VOCABULARY[Math.min(VOCABULARY_SIZE - 1, index < 0 ? -index - 1 : index)];
+    }
+
+    private static String[] buildVocabulary(int size, Random random) {
+        String[] syllables = { "ka", "lo", "mi", "ne", "ru", "ta", "po", "si", "de", "ven",
+                "tor", "ash", "el", "ind", "qu", "ber", "mon", "lia", "gra", "ost" };
+        Set<String> words = new LinkedHashSet<>();
+        while (words.size() < size) {
+            StringBuilder word = new StringBuilder();
+            int length = 1 + random.nextInt(4);
+            for (int i = 0; i < length; i++) {
+                word.append(syllables[random.nextInt(syllables.length)]);
+            }
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
+    }
+
+    private static double[] zipfCumulative(int size) {
+        double[] cumulative = new double[size];
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < size; i++) {
+            cumulative[i] /= total;
+        }
+        return cumulative;
+    }
+}
@@ -0,0 +1,396 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of non-negative ints in the style of a Roaring bitmap.
+ *
+ * Values are grouped by their high 16 bits into containers. A container of
+ * up to 4096 values is a sorted char array; a fuller one is a 65536-bit
+ * bitmap, so no container costs more than 8 KB. Intersections and unions
+ * work container by container and skip keys missing from either side.
+ * Not thread-safe.
+ */
+public final class NoteBitmap {
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    /**
+     * Values sharing one high 16 bits; exactly one of array and bitmap is set
+     */
+    private static final class Container {
+        char[] array;
+        long[] bitmap;
+        int cardinality;
+
+        static Container ofArray(char[] array, int cardinality) {
+            Container container = new Container();
+            container.array = array;
+            container.cardinality = cardinality;
+            return container;
+        }
+
+        static Container ofBitmap(long[] bitmap, int cardinality) {
+            Container container = new Container();
+            container.bitmap = bitmap;
+            container.cardinality = cardinality;
+            return container;
+        }
+
+        boolean contains(char low) {
+            return bitmap != null ? (bitmap[low >>> 6] & (1L << low)) != 0
+                    : Arrays.binarySearch(array, 0, cardinality, low) >= 0;
+        }
+
+        boolean add(char low) {
+            if (bitmap != null) {
+                long before = bitmap[low >>> 6];
+                bitmap[low >>> 6] = before | (1L << low);
+                if (before == bitmap[low >>> 6]) {
+                    return false;
+                }
+                cardinality++;
+                return true;
+            }
+            int index = Arrays.binarySearch(array, 0, cardinality, low);
+            if (index >= 0) {
+                return false;
+            }
+            if (cardinality == ARRAY_MAX) {
+                toBitmap();
+                return add(low);
+            }
+            index = -index - 1;
+            if (cardinality == array.length) {
+                array = Arrays.copyOf(array, Math.min(ARRAY_MAX, Math.max(4, array.length * 2)));
+            }
+            System.arraycopy(array, index, array, index + 1, cardinality - index);
+            array[index] = low;
+            cardinality++;
+            return true;
+        }
+
+        boolean remove(char low) {
+            if (bitmap != null) {
+                long before = bitmap[low >>> 6];
+                bitmap[low >>> 6] = before & ~(1L << low);
+                if (before == bitmap[low >>> 6]) {
+                    return false;
+                }
+                if (--cardinality <= ARRAY_MAX) {
+                    toArray();
+                }
+                return true;
+            }
+            int index = Arrays.binarySearch(array, 0, cardinality, low);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(array, index + 1, array, index, cardinality - index - 1);
+            cardinality--;
+            return true;
+        }
+
+        private void toBitmap() {
+            bitmap = new long[BITMAP_WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                bitmap[array[i] >>> 6] |= 1L << array[i];
+            }
+            array = null;
+        }
+
+        private void toArray() {
+            array = bitmapValues(bitmap, cardinality);
+            bitmap = null;
+        }
+
+        void forEach(int high, IntConsumer action) {
+            if (bitmap == null) {
+                for (int i = 0; i < cardinality; i++) {
+                    action.accept(high | array[i]);
+                }
+                return;
+            }
+            for (int word = 0; word < BITMAP_WORDS; word++) {
+                long bits = bitmap[word];
+                while (bits != 0) {
+                    action.accept(high | (word << 6) | Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
+            }
+        }
+    }
+
+    public void add(int value) {
+        char high = (char) (value >>> 16);
+        int index = find(high);
+        if (index < 0) {
+            index = -index - 1;
+            insert(index, high, Container.ofArray(new char[4], 0));
+        }
+        containers[index].add((char) value);
+    }
+
+    public void remove(int value) {
+        int index = find((char) (value >>> 16));
+        if (index >= 0 && containers[index].remove((char) value) && containers[index].cardinality == 0) {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+            containers[--size] = null;
+        }
+    }
+
+    public boolean contains(int value) {
+        int index = find((char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality;
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Visit every value in ascending order
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    /**
+     * Add every value of another bitmap to this one
+     */
+    public void addAll(NoteBitmap other) {
+        for (int j = 0; j < other.size; j++) {
+            int index = find(other.keys[j]);
+            if (index < 0) {
+                insert(-index - 1, other.keys[j], copy(other.containers[j]));
+            } else {
+                containers[index] = or(containers[index], other.containers[j]);
+            }
+        }
+    }
+
+    /**
+     * Values present in both bitmaps
+     */
+    public static NoteBitmap and(NoteBitmap a, NoteBitmap b) {
+        NoteBitmap result = new NoteBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container both = and(a.containers[i], b.containers[j]);
+                if (both.cardinality > 0) {
+                    result.insert(result.size, a.keys[i], both);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Number of values present in both bitmaps, without building the result
+     */
+    public static int andCardinality(NoteBitmap a, NoteBitmap b) {
+        int cardinality = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                cardinality += andCardinality(a.containers[i++], b.containers[j++]);
+            }
+        }
+        return cardinality;
+    }
+
+    /**
+     * Values present in either bitmap
+     */
+    public static NoteBitmap or(NoteBitmap a, NoteBitmap b) {
+        NoteBitmap result = new NoteBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                result.insert(result.size, a.keys[i], copy(a.containers[i++]));
+            } else if (i == a.size || a.keys[i] > b.keys[j]) {
+                result.insert(result.size, b.keys[j], copy(b.containers[j++]));
+            } else {
+                result.insert(result.size, a.keys[i], or(a.containers[i++], b.containers[j++]));
+            }
+        }
+        return result;
+    }
+
+    private static Container and(Container x, Container y) {
+        if (x.bitmap != null && y.bitmap != null) {
+            long[] words = new long[BITMAP_WORDS];
+            int cardinality = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                words[w] = x.bitmap[w] & y.bitmap[w];
+                cardinality += Long.bitCount(words[w]);
+            }
+            return cardinality > ARRAY_MAX ? Container.ofBitmap(words, cardinality)
+                    : Container.ofArray(bitmapValues(words, cardinality), cardinality);
+        }
+        if (x.bitmap != null) {
+            return and(y, x);
+        }
+        char[] values = new char[Math.min(x.cardinality, y.cardinality)];
+        int count = 0;
+        if (y.bitmap != null) {
+            for (int i = 0; i < x.cardinality; i++) {
+                if ((y.bitmap[x.array[i] >>> 6] & (1L << x.array[i])) != 0) {
+                    values[count++] = x.array[i];
+                }
+            }
+        } else {
+            int i = 0;
+            int j = 0;
+            while (i < x.cardinality && j < y.cardinality) {
+                if (x.array[i] < y.array[j]) {
+                    i++;
+                } else if (x.array[i] > y.array[j]) {
+                    j++;
+                } else {
+                    values[count++] = x.array[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return Container.ofArray(values, count);
+    }
+
+    private static int andCardinality(Container x, Container y) {
+        if (x.bitmap != null && y.bitmap != null) {
+            int cardinality = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                cardinality += Long.bitCount(x.bitmap[w] & y.bitmap[w]);
+            }
+            return cardinality;
+        }
+        if (x.bitmap != null) {
+            return andCardinality(y, x);
+        }
+        int count = 0;
+        if (y.bitmap != null) {
+            for (int i = 0; i < x.cardinality; i++) {
+                if ((y.bitmap[x.array[i] >>> 6] & (1L << x.array[i])) != 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        int i = 0;
+        int j = 0;
+        while (i < x.cardinality && j < y.cardinality) {
+            if (x.array[i] < y.array[j]) {
+                i++;
+            } else if (x.array[i] > y.array[j]) {
+                j++;
+            } else {
+                count++;
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    private static Container or(Container x, Container y) {
+        if (x.bitmap == null && y.bitmap == null && x.cardinality + y.cardinality <= ARRAY_MAX) {
+            char[] values = new char[x.cardinality + y.cardinality];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < x.cardinality || j < y.cardinality) {
+                if (j == y.cardinality || (i < x.cardinality && x.array[i] < y.array[j])) {
+                    values[count++] = x.array[i++];
+                } else if (i == x.cardinality || x.array[i] > y.array[j]) {
+                    values[count++] = y.array[j++];
+                } else {
+                    values[count++] = x.array[i++];
+                    j++;
+                }
+            }
+            return Container.ofArray(values, count);
+        }
+        long[] words = new long[BITMAP_WORDS];
+        for (Container side : new Container[] { x, y }) {
+            if (side.bitmap != null) {
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    words[w] |= side.bitmap[w];
+                }
+            } else {
+                for (int i = 0; i < side.cardinality; i++) {
+                    words[side.array[i] >>> 6] |= 1L << side.array[i];
+                }
+            }
+        }
+        int cardinality = 0;
+        for (long word : words) {
+            cardinality += Long.bitCount(word);
+        }
+        return cardinality > ARRAY_MAX ? Container.ofBitmap(words, cardinality)
+                : Container.ofArray(bitmapValues(words, cardinality), cardinality);
+    }
+
+    private static Container copy(Container container) {
+        return container.bitmap != null
+                ? Container.ofBitmap(container.bitmap.clone(), container.cardinality)
+                : Container.ofArray(Arrays.copyOf(container.array, container.cardinality), container.cardinality);
+    }
+
+    private static char[] bitmapValues(long[] bitmap, int cardinality) {
+        char[] values = new char[Math.max(cardinality, 1)];
+        int count = 0;
+        for (int word = 0; word < BITMAP_WORDS; word++) {
+            long bits = bitmap[word];
+            while (bits != 0) {
+                values[count++] = (char) ((word << 6) | Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+        return values;
+    }
+
+    private int find(char high) {
+        return Arrays.binarySearch(keys, 0, size, high);
+    }
+
+    private void insert(int index, char high, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = high;
+        containers[index] = container;
+        size++;
+    }
+}
@@ -0,0 +1,183 @@
+import java.util.*;
+
+/**
+ * Memory-bounded LRU cache of decoded note bodies.
+ *
+ * Bodies that live outside the heap (memory-mapped or compressed) are
+ * wrapped with {@link #wrap}; reading a wrapped body goes through the
+ * cache, so recently read notes stay fast while the heap only holds as
+ * much decoded text as the budget allows. The budget counts two bytes per
+ * character plus a fixed overhead per entry. Pinned bodies, such as the
+ * note open in the editor, are never evicted. Bulk passes such as search
+ * read through {@link Note.LazyBody#decodeOnce()}, which uses a cached copy
+ * but never adds one, so a scan does not flush the working set. Hit, miss
+ * and eviction counts are kept for {@link #stats()}.
+ */
+final class NoteBodyCache {
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /**
+     * Counters and occupancy at one point in time
+     */
+    static final class Stats {
+        final long hits;
+        final long misses;
+        final long evictions;
+        final int entries;
+        final long bytes;
+        final long budget;
+
+        Stats(long hits, long misses, long evictions, int entries, long bytes, long budget) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.bytes = bytes;
+            this.budget = budget;
+        }
+
+        double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits, %d misses (%.0f%% hit rate), %d evictions, %d entries, %d/%d KB",
+                    hits, misses, hitRate() * 100, evictions, entries, bytes / 1024, budget / 1024);
+        }
+    }
+
+    private final long budget;
+    private final LinkedHashMap<Object, String> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<Object, Integer> pins = new IdentityHashMap<>();
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    NoteBodyCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * A body that reads through this cache
+     */
+    Note.LazyBody wrap(Note.LazyBody body) {
+        return body instanceof Cached ? body : new Cached(body);
+    }
+
+    /**
+     * The body a cached wrapper reads from, or the body itself
+     */
+    static Note.LazyBody unwrap(Note.LazyBody body) {
+        return body instanceof Cached ? ((Cached) body).source : body;
+    }
+
+    /**
+     * Keep a body decoded until it is unpinned. Pins nest.
+     */
+    void pin(Note.LazyBody body) {
+        if (!(body instanceof Cached)) {
+            return;
+        }
+        synchronized (this) {
+            pins.merge(body, 1, Integer::sum);
+        }
+        body.decode();
+    }
+
+    synchronized void unpin(Note.LazyBody body) {
+        Integer count = pins.get(body);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            pins.put(body, count - 1);
+        } else {
+            pins.remove(body);
+            evict();
+        }
+    }
+
+    synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, entries.size(), bytes, budget);
+    }
+
+    private synchronized String get(Object body) {
+        String content = entries.get(body);
+        if (content != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return content;
+    }
+
+    /**
+     * Cached content without counting a lookup
+     */
+    private synchronized String peek(Object body) {
+        return entries.get(body);
+    }
+
+    private synchronized void put(Object body, String content) {
+        String previous = entries.put(body, content);
+        if (previous != null) {
+            bytes -= weight(previous);
+        }
+        bytes += weight(content);
+        evict();
+    }
+
+    /**
+     * Drop least recently used bodies until the cache fits its budget
+     */
+    private void evict() {
+        Iterator<Map.Entry<Object, String>> eldest = entries.entrySet().iterator();
+        while (bytes > budget && eldest.hasNext()) {
+            Map.Entry<Object, String> entry = eldest.next();
+            if (!pins.containsKey(entry.getKey())) {
+                bytes -= weight(entry.getValue());
+                eldest.remove();
+                evictions++;
+            }
+        }
+    }
+
+    private static long weight(String content) {
+        return 2L * content.length() + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * A body whose decoded form is looked up in the cache first
+     */
+    private final class Cached implements Note.LazyBody {
+        private final Note.LazyBody source;
+
+        Cached(Note.LazyBody source) {
+            this.source = source;
+        }
+
+        @Override
+        public String decode() {
+            String content = get(this);
+            if (content == null) {
+                content = source.decode();
+                put(this, content);
+            }
+            return content;
+        }
+
+        @Override
+        public byte[] utf8() {
+            return source.utf8();
+        }
+
+        @Override
+        public String decodeOnce() {
+            String content = peek(this);
+            return content != null ? content : source.decode();
+        }
+    }
+}
@@ -0,0 +1,507 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compact binary encoding of notes.
+ *
+ * A snapshot is [magic][version], the UTF-8 bodies back to back, a table
+ * of length-prefixed metadata records and a footer [table offset][count]
+ * [magic]. Keeping bodies apart from metadata lets a reader map them and
+ * decode each one lazily. Strings are UTF-8 with an int length, timestamps
+ * are epoch nanoseconds (UTC) stored as longs. Record lengths let a reader
+ * skip fields appended by a newer version. Since version 3 a record's id is
+ * its {@link NoteId} key, followed by the id string only for ids that the
+ * key cannot reproduce. Since version 4 a record ends with the body's
+ * encoding (plain UTF-8 or Deflate) and its decoded length, and since
+ * version 5 with the note's tags and metadata. Since version 6 the table
+ * is cut into chunks of {@link #TABLE_CHUNK_NOTES} records, listed in a
+ * directory of [offset][count] entries and their number just before the
+ * footer, so a reader can parse the chunks in parallel. Since version 7 a
+ * random generation follows the directory, naming the snapshot for the
+ * derived indexes stored next to it ({@link NoteIndexFile}). Note records (as
+ * written to the log) end with the same attributes; older records stop
+ * after the timestamps and read back without any.
+ */
+public final class NoteCodec {
+    public static final int MAGIC = 0x4E4F5445; // "NOTE"
+    public static final int VERSION = 7;
+    public static final byte BODY_PLAIN = 0;
+    public static final byte BODY_DEFLATE = 1;
+
+    private static final int HEADER_SIZE = 6;
+    private static final int FOOTER_SIZE = 16;
+    static final int TABLE_CHUNK_NOTES = 4096;
+    /** Notes built per task when a snapshot is read in parallel */
+    private static final int BUILD_GRAIN = 1024;
+
+    /** First two bytes of a Java serialization stream, used by legacy files */
+    private static final int LEGACY_MAGIC = 0xACED;
+
+    private NoteCodec() {
+    }
+
+    public static byte[] encode(Note note) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(48 + note.getContent().length());
+            writeNote(new DataOutputStream(bytes), note);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Note decode(byte[] record) throws IOException {
+        return readNote(new DataInputStream(new ByteArrayInputStream(record)));
+    }
+
+    public static void writeNote(DataOutput out, Note note) throws IOException {
+        writeString(out, note.getId());
+        writeString(out, note.getTitle());
+        writeString(out, note.getContent());
+        out.writeLong(toEpochNanos(note.getCreatedAt()));
+        out.writeLong(toEpochNanos(note.getModifiedAt()));
+        writeAttributes(out, note);
+    }
+
+    /**
+     * Read one note record from a stream holding nothing after it, which is
+     * how records written before tags existed are told apart
+     */
+    public static Note readNote(DataInputStream in) throws IOException {
+        String id = readString(in);
+        String title = readString(in);
+        String content = readString(in);
+        LocalDateTime createdAt = fromEpochNanos(in.readLong());
+        LocalDateTime modifiedAt = fromEpochNanos(in.readLong());
+        Note note = new Note(id, title, content, createdAt, modifiedAt);
+        if (in.available() > 0) {
+            note.setAttributes(readTags(in), readMetadata(in));
+        }
+        return note;
+    }
+
+    /**
+     * Write a full snapshot of notes. Bodies are laid out back to back
+     * first, followed by a table of metadata records pointing into them and
+     * a fixed-size footer locating the table.
+     */
+    public static void writeSnapshot(OutputStream stream, List<Note> notes) throws IOException {
+        writeSnapshot(stream, notes, null);
+    }
+
+    /**
+     * Write a snapshot, storing large bodies compressed when
+     * {@code compression} is given. Bodies already compressed in memory are
+     * written as they are.
+     */
+    static void writeSnapshot(OutputStream stream, List<Note> notes, NoteCompression compression) throws IOException {
+        writeSnapshot(stream, notes, compression, newGeneration());
+    }
+
+    /**
+     * Write a snapshot under a given generation, see {@link #newGeneration()}
+     */
+    static void writeSnapshot(OutputStream stream, List<Note> notes, NoteCompression compression,
+            long generation) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        long position = HEADER_SIZE;
+        long[] offsets = new long[notes.size()];
+        int[] lengths = new int[notes.size()];
+        byte[] encodings = new byte[notes.size()];
+        int[] decodedLengths = new int[notes.size()];
+        for (int i = 0; i < notes.size(); i++) {
+            Note note = notes.get(i);
+            byte[] body = NoteCompression.compressedBytes(note.getLazyBody());
+            if (body != null) {
+                encodings[i] = BODY_DEFLATE;
+                decodedLengths[i] = NoteCompression.inflatedLength(note.getLazyBody());
+            } else {
+                byte[] utf8 = note.getContentUtf8();
+                body = compression != null ? compression.compressForSnapshot(utf8) : null;
+                encodings[i] = body != null ? BODY_DEFLATE : BODY_PLAIN;
+                decodedLengths[i] = utf8.length;
+                if (body == null) {
+                    body = utf8;
+                }
+            }
+            out.write(body);
+            offsets[i] = position;
+            lengths[i] = body.length;
+            position += body.length;
+        }
+
+        long tableOffset = position;
+        long[] chunkOffsets = new long[(notes.size() + TABLE_CHUNK_NOTES - 1) / TABLE_CHUNK_NOTES];
+        ByteArrayOutputStream record = new ByteArrayOutputStream(128);
+        DataOutputStream recordOut = new DataOutputStream(record);
+        for (int i = 0; i < notes.size(); i++) {
+            Note note = notes.get(i);
+            if (i % TABLE_CHUNK_NOTES == 0) {
+                chunkOffsets[i / TABLE_CHUNK_NOTES] = position;
+            }
+            record.reset();
+            writeId(recordOut, note);
+            writeString(recordOut, note.getTitle());
+            recordOut.writeLong(toEpochNanos(note.getCreatedAt()));
+            recordOut.writeLong(toEpochNanos(note.getModifiedAt()));
+            recordOut.writeLong(offsets[i]);
+            recordOut.writeInt(lengths[i]);
+            recordOut.writeByte(encodings[i]);
+            recordOut.writeInt(decodedLengths[i]);
+            writeAttributes(recordOut, note);
+            out.writeInt(record.size());
+            record.writeTo(out);
+            position += 4 + record.size();
+        }
+        for (int c = 0; c < chunkOffsets.length; c++) {
+            out.writeLong(chunkOffsets[c]);
+            out.writeInt(Math.min(TABLE_CHUNK_NOTES, notes.size() - c * TABLE_CHUNK_NOTES));
+        }
+        out.writeInt(chunkOffsets.length);
+        out.writeLong(generation);
+        out.writeLong(tableOffset);
+        out.writeInt(notes.size());
+        out.writeInt(MAGIC);
+        out.flush();
+    }
+
+    /**
+     * Read a snapshot file. With {@code lazyBodies} the body region stays
+     * memory-mapped and each body is decoded only when it is read.
+     */
+    public static List<Note> readSnapshot(File file, boolean lazyBodies) throws IOException {
+        return readSnapshot(file, lazyBodies, null, null);
+    }
+
+    /**
+     * Read a snapshot file. Compressed bodies stay compressed in memory
+     * when {@code compression} is given and are inflated on load otherwise.
+     * Lazy bodies read through {@code cache} when one is given.
+     */
+    static List<Note> readSnapshot(File file, boolean lazyBodies, NoteCompression compression,
+            NoteBodyCache cache) throws IOException {
+        return readSnapshot(file, lazyBodies, compression, cache, null);
+    }
+
+    /**
+     * Read a snapshot file, parsing the table chunks and building the notes
+     * on {@code pool} when one is given
+     */
+    static List<Note> readSnapshot(File file, boolean lazyBodies, NoteCompression compression,
+            NoteBodyCache cache, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a note snapshot");
+            }
+            int version = header.getShort() & 0xFFFF;
+            if (version == 1) {
+                return readVersion1(file);
+            }
+            if (version > VERSION) {
+                throw new IOException("Unsupported note snapshot version " + version);
+            }
+
+            long size = channel.size();
+            ByteBuffer footer = readFully(channel, size - FOOTER_SIZE, FOOTER_SIZE);
+            long tableOffset = footer.getLong();
+            int count = footer.getInt();
+            if (footer.getInt() != MAGIC || tableOffset < HEADER_SIZE || tableOffset > size - FOOTER_SIZE) {
+                throw new IOException("Corrupt note snapshot footer");
+            }
+
+            Table table = new Table(count, version);
+            if (version >= 6) {
+                readChunks(channel, table, tableOffset, size - FOOTER_SIZE - (version >= 7 ? 8 : 0), pool);
+            } else {
+                channel.position(tableOffset);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+                table.read(in, 0, count);
+            }
+
+            MappedNoteBodies bodies = MappedNoteBodies.map(channel, HEADER_SIZE, tableOffset, table.offsets, table.lengths);
+            Note[] notes = new Note[count];
+            NoteParallel.forRanges(pool, count, BUILD_GRAIN, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    notes[i] = table.note(i, bodies.body(table.offsets[i], table.lengths[i]),
+                            lazyBodies, compression, cache);
+                }
+            });
+            return new ArrayList<>(Arrays.asList(notes));
+        }
+    }
+
+    /**
+     * A random generation for a new snapshot, never 0
+     */
+    static long newGeneration() {
+        return ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    }
+
+    /**
+     * Generation of a snapshot file, or 0 for one written before version 7
+     */
+    static long readGeneration(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a note snapshot");
+            }
+            int version = header.getShort() & 0xFFFF;
+            return version >= 7 ? readFully(channel, channel.size() - FOOTER_SIZE - 8, 8).getLong() : 0;
+        }
+    }
+
+    /**
+     * Parse a chunked table, each chunk with a positional read of its own.
+     * The chunk count is stored just before {@code end}.
+     */
+    private static void readChunks(FileChannel channel, Table table, long tableOffset, long end,
+            ForkJoinPool pool) throws IOException {
+        ByteBuffer tail = readFully(channel, end - 4, 4);
+        int chunks = tail.getInt();
+        long directoryOffset = end - 4 - 12L * chunks;
+        if (chunks < 0 || directoryOffset < tableOffset) {
+            throw new IOException("Corrupt note snapshot chunk directory");
+        }
+        ByteBuffer directory = readFully(channel, directoryOffset, 12 * chunks);
+        long[] starts = new long[chunks + 1];
+        int[] firsts = new int[chunks + 1];
+        for (int c = 0; c < chunks; c++) {
+            starts[c] = directory.getLong();
+            firsts[c + 1] = firsts[c] + directory.getInt();
+            if (starts[c] < (c == 0 ? tableOffset : starts[c - 1]) || firsts[c + 1] < firsts[c]) {
+                throw new IOException("Corrupt note snapshot chunk directory");
+            }
+        }
+        starts[chunks] = directoryOffset;
+        if (firsts[chunks] != table.count || starts[chunks] < starts[Math.max(0, chunks - 1)]) {
+            throw new IOException("Corrupt note snapshot chunk directory");
+        }
+        NoteParallel.forRanges(pool, chunks, 1, (from, to) -> {
+            for (int c = from; c < to; c++) {
+                ByteBuffer chunk = readFully(channel, starts[c], (int) (starts[c + 1] - starts[c]));
+                table.read(new DataInputStream(new ByteArrayInputStream(chunk.array())), firsts[c], firsts[c + 1]);
+            }
+        });
+    }
+
+    /**
+     * The metadata records of a snapshot, one slot per note so that chunks
+     * can be parsed in any order
+     */
+    private static final class Table {
+        final int count;
+        final int version;
+        final String[] ids;
+        final String[] titles;
+        final long[] created;
+        final long[] modified;
+        final long[] offsets;
+        final int[] lengths;
+        final byte[] encodings;
+        final int[] decodedLengths;
+        final Object[] tags;
+        final Object[] metadata;
+
+        Table(int count, int version) {
+            this.count = count;
+            this.version = version;
+            ids = new String[count];
+            titles = new String[count];
+            created = new long[count];
+            modified = new long[count];
+            offsets = new long[count];
+            lengths = new int[count];
+            encodings = new byte[count];
+            decodedLengths = new int[count];
+            tags = new Object[version >= 5 ? count : 0];
+            metadata = new Object[version >= 5 ? count : 0];
+        }
+
+        /**
+         * Read the length-prefixed records of notes {@code from} to {@code to}
+         */
+        void read(DataInputStream in, int from, int to) throws IOException {
+            for (int i = from; i < to; i++) {
+                byte[] record = new byte[in.readInt()];
+                in.readFully(record);
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record));
+                ids[i] = version >= 3 ? readId(fields) : readString(fields);
+                titles[i] = readString(fields);
+                created[i] = fields.readLong();
+                modified[i] = fields.readLong();
+                offsets[i] = fields.readLong();
+                lengths[i] = fields.readInt();
+                if (version >= 4) {
+                    encodings[i] = fields.readByte();
+                    decodedLengths[i] = fields.readInt();
+                }
+                if (version >= 5) {
+                    tags[i] = readTags(fields);
+                    metadata[i] = readMetadata(fields);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        Note note(int i, Note.LazyBody body, boolean lazyBodies, NoteCompression compression,
+                NoteBodyCache cache) throws IOException {
+            LocalDateTime createdAt = fromEpochNanos(created[i]);
+            LocalDateTime modifiedAt = fromEpochNanos(modified[i]);
+            Note note;
+            if (encodings[i] == BODY_DEFLATE) {
+                if (compression != null) {
+                    body = lazyBodies ? compression.body(body, decodedLengths[i])
+                            : compression.onHeap(body, decodedLengths[i]);
+                    note = new Note(ids[i], titles[i], body, createdAt, modifiedAt);
+                } else {
+                    String content = new String(NoteCompression.inflate(body.utf8(), decodedLengths[i]),
+                            StandardCharsets.UTF_8);
+                    note = new Note(ids[i], titles[i], content, createdAt, modifiedAt);
+                }
+            } else if (encodings[i] != BODY_PLAIN) {
+                throw new IOException("Unknown note body encoding " + encodings[i]);
+            } else {
+                note = lazyBodies
+                        ? new Note(ids[i], titles[i], cache != null ? cache.wrap(body) : body, createdAt, modifiedAt)
+                        : new Note(ids[i], titles[i], body.decode(), createdAt, modifiedAt);
+            }
+            if (version >= 5) {
+                note.setAttributes((List<String>) tags[i], (Map<String, String>) metadata[i]);
+            }
+            return note;
+        }
+    }
+
+    /**
+     * Version 1 snapshots hold complete length-prefixed note records
+     */
+    private static List<Note> readVersion1(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            in.skipBytes(HEADER_SIZE);
+            int count = in.readInt();
+            List<Note> notes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] record = new byte[in.readInt()];
+                in.readFully(record);
+                notes.add(decode(record));
+            }
+            return notes;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated note snapshot");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Whether a data file was written by the old ObjectOutputStream format
+     */
+    public static boolean isLegacyFile(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return file.length() >= 2 && in.readUnsignedShort() == LEGACY_MAGIC;
+        }
+    }
+
+    /**
+     * Write a note id as its key, plus the string when it is not a generated id
+     */
+    public static void writeId(DataOutput out, Note note) throws IOException {
+        out.writeLong(note.getKey());
+        if (!NoteId.isGenerated(note.getKey())) {
+            writeString(out, note.getId());
+        }
+    }
+
+    public static String readId(DataInput in) throws IOException {
+        long key = in.readLong();
+        return NoteId.isGenerated(key) ? NoteId.format(key) : readString(in);
+    }
+
+    /**
+     * Tags as a count and strings, then metadata as a count and key/value pairs
+     */
+    static void writeAttributes(DataOutput out, Note note) throws IOException {
+        Set<String> tags = note.getTags();
+        out.writeInt(tags.size());
+        for (String tag : tags) {
+            writeString(out, tag);
+        }
+        Map<String, String> metadata = note.getMetadata();
+        out.writeInt(metadata.size());
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    static List<String> readTags(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<String> tags = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tags.add(readString(in));
+        }
+        return tags;
+    }
+
+    static Map<String, String> readMetadata(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count == 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> metadata = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            metadata.put(readString(in), readString(in));
+        }
+        return metadata;
+    }
+
+    public static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static long toEpochNanos(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + time.getNano();
+    }
+
+    public static LocalDateTime fromEpochNanos(long nanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L),
+                (int) Math.floorMod(nanos, 1_000_000_000L), ZoneOffset.UTC);
+    }
+}
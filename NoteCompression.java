@@ -0,0 +1,170 @@
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of large note bodies, in memory and in snapshots.
+ *
+ * Bodies of at least {@code threshold} characters are kept as compressed
+ * UTF-8 and inflated when read; smaller ones stay plain strings, since
+ * short notes compress poorly and are the ones edited most. Compressed
+ * bodies read through a {@link NoteBodyCache}. Compression runs at the
+ * fastest Deflate level with per-thread compressors, trading some ratio
+ * for speed on the save path.
+ */
+final class NoteCompression {
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final int threshold;
+    private final NoteBodyCache cache;
+
+    NoteCompression(int threshold, NoteBodyCache cache) {
+        this.threshold = threshold;
+        this.cache = cache;
+    }
+
+    /**
+     * The note with its body compressed, or the note itself if the body is
+     * small, already compressed, or does not shrink
+     */
+    Note compress(Note note) {
+        if (!note.isContentLoaded() || note.getContent().length() < threshold) {
+            return note;
+        }
+        byte[] utf8 = note.getContent().getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = deflate(utf8);
+        if (compressed == null) {
+            return note;
+        }
+        Note packed = new Note(note.getId(), note.getTitle(), cache.wrap(new Body(new HeapBytes(compressed), utf8.length)),
+                note.getCreatedAt(), note.getModifiedAt());
+        packed.copyAttributes(note);
+        return packed;
+    }
+
+    /**
+     * Compressed form of a body for a snapshot, or null to store it plain
+     */
+    byte[] compressForSnapshot(byte[] utf8) {
+        return utf8.length < threshold ? null : deflate(utf8);
+    }
+
+    /**
+     * A body whose stored bytes ({@link Note.LazyBody#utf8()} of
+     * {@code stored}) are compressed and inflate to {@code length} bytes
+     */
+    Note.LazyBody body(Note.LazyBody stored, int length) {
+        return cache.wrap(new Body(stored, length));
+    }
+
+    /**
+     * Like {@link #body}, but copies the compressed bytes to the heap so
+     * they do not depend on the snapshot file staying mapped
+     */
+    Note.LazyBody onHeap(Note.LazyBody stored, int length) {
+        return cache.wrap(new Body(new HeapBytes(stored.utf8()), length));
+    }
+
+    /**
+     * Compressed bytes of a note body, or null if it is not compressed
+     */
+    static byte[] compressedBytes(Note.LazyBody body) {
+        body = NoteBodyCache.unwrap(body);
+        return body instanceof Body ? ((Body) body).stored.utf8() : null;
+    }
+
+    static int inflatedLength(Note.LazyBody body) {
+        return ((Body) NoteBodyCache.unwrap(body)).length;
+    }
+
+    /**
+     * Deflate bytes, or return null if that would not save anything
+     */
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        byte[] output = new byte[input.length];
+        int size = 0;
+        while (!deflater.finished() && size < output.length) {
+            size += deflater.deflate(output, size, output.length - size);
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+        byte[] result = new byte[size];
+        System.arraycopy(output, 0, result, 0, size);
+        return result;
+    }
+
+    static byte[] inflate(byte[] input, int length) {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(input);
+        byte[] output = new byte[length];
+        try {
+            int size = 0;
+            while (size < length && !inflater.finished()) {
+                int n = inflater.inflate(output, size, length - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += n;
+            }
+            if (size != length) {
+                throw new IllegalStateException("Compressed note body is truncated");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Compressed note body is corrupt", e);
+        }
+        return output;
+    }
+
+    /**
+     * A compressed body, inflated on each read
+     */
+    private static final class Body implements Note.LazyBody {
+        private final Note.LazyBody stored;
+        private final int length;
+
+        Body(Note.LazyBody stored, int length) {
+            this.stored = stored;
+            this.length = length;
+        }
+
+        @Override
+        public String decode() {
+            return new String(utf8(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public byte[] utf8() {
+            return inflate(stored.utf8(), length);
+        }
+    }
+
+    /**
+     * Compressed bytes held on the heap
+     */
+    private static final class HeapBytes implements Note.LazyBody {
+        private final byte[] bytes;
+
+        HeapBytes(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String decode() {
+            throw new UnsupportedOperationException("Compressed bytes have no text form");
+        }
+
+        @Override
+        public byte[] utf8() {
+            return bytes;
+        }
+    }
+}
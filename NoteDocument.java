@@ -0,0 +1,118 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.PlainDocument;
+import java.util.List;
+
+/**
+ * Editor document for a note body, backed by a {@link NotePieceTable}.
+ *
+ * Opening a note does not copy its body: the document starts with the
+ * first chunk and {@link #loadNextChunk()} appends the rest a chunk at a
+ * time, so a multi-megabyte note shows at once and the remainder streams
+ * in between other events. Saving reads back only what changed with
+ * {@link #getEdits()}; after a save {@link #saved} makes the new body the
+ * base the next edits are measured against.
+ */
+public class NoteDocument extends PlainDocument {
+    private static final long serialVersionUID = 1L;
+    public static final int CHUNK_CHARS = 64 * 1024;
+
+    private final NotePieceTable table;
+
+    public NoteDocument(String body) {
+        this(new NotePieceTable(body, 0));
+    }
+
+    private NoteDocument(NotePieceTable table) {
+        super(table);
+        this.table = table;
+        loadNextChunk();
+    }
+
+    /**
+     * Append the next chunk of the body; returns whether more remains
+     */
+    public boolean loadNextChunk() {
+        String body = table.original();
+        int start = body.length() - table.unloaded();
+        int count = Math.min(CHUNK_CHARS, table.unloaded());
+        if (count > 0) {
+            // Keep a surrogate pair within one chunk
+            if (start + count < body.length() && Character.isHighSurrogate(body.charAt(start + count - 1))) {
+                count++;
+            }
+            writeLock();
+            try {
+                int offset = getLength();
+                table.appendOriginal(count);
+                DefaultDocumentEvent event = new DefaultDocumentEvent(offset, count, DocumentEvent.EventType.INSERT);
+                insertUpdate(event, null);
+                event.end();
+                fireInsertUpdate(event);
+            } finally {
+                writeUnlock();
+            }
+        }
+        return !isFullyLoaded();
+    }
+
+    public void loadAll() {
+        while (loadNextChunk()) {
+            // Appends one chunk per call
+        }
+    }
+
+    public boolean isFullyLoaded() {
+        return table.unloaded() == 0;
+    }
+
+    /**
+     * The ranges of the last saved body that changed, in ascending order;
+     * loads the rest of the body first
+     */
+    public List<NoteEdit> getEdits() {
+        loadAll();
+        readLock();
+        try {
+            return table.edits();
+        } finally {
+            readUnlock();
+        }
+    }
+
+    /**
+     * Whether the text may differ from the last saved body, answered from
+     * the pieces without loading the rest of the body. Text typed and then
+     * deleted can still count as a change; {@link #getEdits()} is exact.
+     */
+    public boolean isModified() {
+        readLock();
+        try {
+            return table.isModified();
+        } finally {
+            readUnlock();
+        }
+    }
+
+    /**
+     * Body the document was opened with or last saved as
+     */
+    public String getBase() {
+        return table.original();
+    }
+
+    /**
+     * Take {@code body}, which must equal the current text, as the base of
+     * later edits
+     */
+    public void saved(String body) {
+        writeLock();
+        try {
+            if (body.length() != getLength()) {
+                throw new IllegalArgumentException("Saved body does not match the document");
+            }
+            table.reset(body, body.length());
+        } finally {
+            writeUnlock();
+        }
+    }
+}
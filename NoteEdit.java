@@ -0,0 +1,76 @@
+import java.util.List;
+
+/**
+ * One changed range of a note body: {@code removed} characters starting at
+ * {@code offset} of the previous body are replaced by {@code text}.
+ *
+ * A list of edits describes a whole save. Offsets in it refer to the body
+ * before the save, ascend, and never overlap, so applying them is a single
+ * pass over the old body.
+ */
+public final class NoteEdit {
+    private final int offset;
+    private final int removed;
+    private final String text;
+
+    public NoteEdit(int offset, int removed, String text) {
+        if (offset < 0 || removed < 0) {
+            throw new IllegalArgumentException("Invalid edit at " + offset + " removing " + removed);
+        }
+        this.offset = offset;
+        this.removed = removed;
+        this.text = text == null ? "" : text;
+    }
+
+    public int getOffset() { return offset; }
+    public int getRemoved() { return removed; }
+    public String getText() { return text; }
+
+    /**
+     * Change in body length this edit makes
+     */
+    public int delta() {
+        return text.length() - removed;
+    }
+
+    /**
+     * Apply edits to a body; throws IllegalArgumentException if they are
+     * out of order or do not fit it
+     */
+    public static String apply(String base, List<NoteEdit> edits) {
+        if (edits.isEmpty()) {
+            return base;
+        }
+        long length = base.length();
+        for (NoteEdit edit : edits) {
+            length += edit.delta();
+        }
+        StringBuilder result = new StringBuilder((int) Math.max(0, Math.min(Integer.MAX_VALUE - 8, length)));
+        int copied = 0;
+        for (NoteEdit edit : edits) {
+            if (edit.offset < copied || edit.offset + (long) edit.removed > base.length()) {
+                throw new IllegalArgumentException("Edit at " + edit.offset + " does not fit a body of "
+                        + base.length() + " characters");
+            }
+            result.append(base, copied, edit.offset).append(edit.text);
+            copied = edit.offset + edit.removed;
+        }
+        return result.append(base, copied, base.length()).toString();
+    }
+
+    /**
+     * Length of the body the edits produce from one of {@code baseLength}
+     */
+    public static int resultLength(int baseLength, List<NoteEdit> edits) {
+        int length = baseLength;
+        for (NoteEdit edit : edits) {
+            length += edit.delta();
+        }
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "@" + offset + " -" + removed + " +" + text.length();
+    }
+}
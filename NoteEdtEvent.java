@@ -0,0 +1,20 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event for an AWT event whose dispatch kept the event
+ * dispatch thread busy long enough to be noticed
+ */
+@Name("notes.EdtDispatch")
+@Label("EDT Dispatch")
+@Category("Notes")
+@Description("Dispatch of one AWT event on the event dispatch thread")
+@Threshold("20 ms")
+class NoteEdtEvent extends Event {
+    @Label("Event Type")
+    String eventType;
+}
@@ -0,0 +1,97 @@
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Criteria for {@link NoteManager#filterNotes}. A note matches when it has
+ * every tag and metadata pair given, was created and modified within the
+ * time ranges and contains the text query; criteria left unset match every
+ * note.
+ */
+public class NoteFilter {
+    private final Set<String> tags = new TreeSet<>();
+    private final Map<String, String> metadata = new TreeMap<>();
+    private LocalDateTime createdFrom;
+    private LocalDateTime createdTo;
+    private LocalDateTime modifiedFrom;
+    private LocalDateTime modifiedTo;
+    private String text = "";
+
+    /**
+     * Require a tag
+     */
+    public NoteFilter tag(String tag) {
+        if (tag != null && !tag.trim().isEmpty()) {
+            tags.add(tag.trim());
+        }
+        return this;
+    }
+
+    /**
+     * Require a metadata key to hold a value
+     */
+    public NoteFilter metadata(String key, String value) {
+        if (key != null && !key.trim().isEmpty() && value != null) {
+            metadata.put(key.trim(), value);
+        }
+        return this;
+    }
+
+    /**
+     * Require a creation time from {@code from} (inclusive) up to
+     * {@code to} (exclusive); either end may be null to leave it open
+     */
+    public NoteFilter createdBetween(LocalDateTime from, LocalDateTime to) {
+        this.createdFrom = from;
+        this.createdTo = to;
+        return this;
+    }
+
+    /**
+     * Require a modification time from {@code from} (inclusive) up to
+     * {@code to} (exclusive); either end may be null to leave it open
+     */
+    public NoteFilter modifiedBetween(LocalDateTime from, LocalDateTime to) {
+        this.modifiedFrom = from;
+        this.modifiedTo = to;
+        return this;
+    }
+
+    /**
+     * Require the title or content to contain a string, ignoring case
+     */
+    public NoteFilter text(String query) {
+        this.text = query == null ? "" : query.trim();
+        return this;
+    }
+
+    public Set<String> getTags() { return Collections.unmodifiableSet(tags); }
+    public Map<String, String> getMetadata() { return Collections.unmodifiableMap(metadata); }
+    public LocalDateTime getCreatedFrom() { return createdFrom; }
+    public LocalDateTime getCreatedTo() { return createdTo; }
+    public LocalDateTime getModifiedFrom() { return modifiedFrom; }
+    public LocalDateTime getModifiedTo() { return modifiedTo; }
+    public String getText() { return text; }
+
+    /**
+     * Whether any tag, metadata or time criterion is set
+     */
+    public boolean hasAttributes() {
+        return !tags.isEmpty() || !metadata.isEmpty() || hasCreatedRange() || hasModifiedRange();
+    }
+
+    public boolean hasCreatedRange() {
+        return createdFrom != null || createdTo != null;
+    }
+
+    public boolean hasModifiedRange() {
+        return modifiedFrom != null || modifiedTo != null;
+    }
+
+    public boolean hasText() {
+        return !text.isEmpty();
+    }
+}
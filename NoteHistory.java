@@ -0,0 +1,417 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Revision history of notes, stored as reverse deltas.
+ *
+ * The current version of a note lives in the note store; the history file
+ * only holds what is needed to get back to older versions. When a note
+ * changes, the version it replaces is appended as the difference to its
+ * successor: the length of the common prefix and suffix plus the old text
+ * in between. Every {@value #KEYFRAME_INTERVAL}th revision is stored in
+ * full instead, so rebuilding any revision applies fewer than
+ * {@value #KEYFRAME_INTERVAL} deltas, starting from the next keyframe or
+ * the current version. Notes that are never edited cost nothing.
+ *
+ * Records are framed like the note log, [length][crc32][payload], and a
+ * torn tail is cut off on open. All file access happens on one background
+ * thread, so recording a change never delays a save.
+ */
+public class NoteHistory implements Closeable {
+    private static final int KEYFRAME_INTERVAL = 16;
+    private static final int HEADER_SIZE = 8;
+    private static final byte KEYFRAME = 1;
+    private static final byte DELTA = 2;
+
+    /**
+     * One stored version of a note
+     */
+    public static final class Revision {
+        private final int number;
+        private final String title;
+        private final LocalDateTime modifiedAt;
+
+        Revision(int number, String title, LocalDateTime modifiedAt) {
+            this.number = number;
+            this.title = title;
+            this.modifiedAt = modifiedAt;
+        }
+
+        public int getNumber() { return number; }
+        public String getTitle() { return title; }
+        public LocalDateTime getModifiedAt() { return modifiedAt; }
+    }
+
+    /**
+     * File offsets of a note's revisions, oldest first, and the note
+     * version the newest delta leads to
+     */
+    private static final class Revisions {
+        long[] offsets = new long[4];
+        int count;
+        Note head;
+
+        void add(long offset) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = offset;
+        }
+    }
+
+    private final File file;
+    private final ExecutorService writer;
+    private final Map<String, Revisions> revisionsById = new HashMap<>();
+    private FileChannel channel;
+    private long size;
+
+    public NoteHistory(File file) {
+        this.file = file;
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "note-history-writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Read the history index. Revisions of notes that no longer exist are
+     * dropped, and the file is rewritten once they make up most of it.
+     */
+    public void open(Map<String, Note> current) throws IOException {
+        call(() -> {
+            long dead = scan(current);
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.truncate(size);
+            channel.position(size);
+            if (dead > 0 && dead * 2 > size) {
+                rewrite();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Queue the version a note had before an update
+     */
+    public void record(Note previous, Note updated) {
+        execute(() -> {
+            try {
+                append(previous, updated);
+            } catch (IOException e) {
+                System.err.println("Error writing note history: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Forget a deleted note's history; its records are reclaimed when the
+     * file is next rewritten
+     */
+    public void remove(String id) {
+        execute(() -> revisionsById.remove(id));
+    }
+
+    public void clear() {
+        execute(() -> {
+            revisionsById.clear();
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.truncate(0);
+                size = 0;
+            } catch (IOException e) {
+                System.err.println("Error clearing note history: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Revisions of a note, oldest first, ending with the current version;
+     * empty when the note has no recorded history
+     */
+    public List<Revision> list(String id) throws IOException {
+        return call(() -> {
+            Revisions revisions = revisionsById.get(id);
+            if (revisions == null) {
+                return Collections.<Revision>emptyList();
+            }
+            List<Revision> list = new ArrayList<>(revisions.count + 1);
+            for (int i = 0; i < revisions.count; i++) {
+                DataInputStream in = readRecord(revisions.offsets[i]);
+                NoteCodec.readId(in);
+                in.readByte();
+                list.add(new Revision(i, NoteCodec.readString(in), NoteCodec.fromEpochNanos(in.readLong())));
+            }
+            Note head = revisions.head;
+            list.add(new Revision(revisions.count, head.getTitle(), head.getModifiedAt()));
+            return list;
+        });
+    }
+
+    /**
+     * Rebuild one revision of a note, or null if it is unknown. The result
+     * carries the note's id and creation time.
+     */
+    public Note get(String id, int number) throws IOException {
+        return call(() -> {
+            Revisions revisions = revisionsById.get(id);
+            if (revisions == null || number < 0 || number > revisions.count) {
+                return null;
+            }
+            Note head = revisions.head;
+            if (number == revisions.count) {
+                return head;
+            }
+            // Walk forward to the nearest keyframe, or to the current version
+            int base = number;
+            DataInputStream in = null;
+            while (base < revisions.count) {
+                in = readRecord(revisions.offsets[base]);
+                NoteCodec.readId(in);
+                if (in.readByte() == KEYFRAME) {
+                    break;
+                }
+                base++;
+            }
+            String content;
+            if (base < revisions.count) {
+                NoteCodec.readString(in);
+                in.readLong();
+                content = NoteCodec.readString(in);
+            } else {
+                content = head.getContent();
+            }
+            // Then apply the deltas backwards down to the requested revision
+            String title = null;
+            long modified = 0;
+            for (int i = base - 1; i >= number; i--) {
+                in = readRecord(revisions.offsets[i]);
+                NoteCodec.readId(in);
+                in.readByte();
+                title = NoteCodec.readString(in);
+                modified = in.readLong();
+                int target = in.readInt();
+                if (target != checksum(content)) {
+                    throw new IOException("Note history of " + id + " is incomplete");
+                }
+                int prefix = in.readInt();
+                int suffix = in.readInt();
+                content = content.substring(0, prefix) + NoteCodec.readString(in)
+                        + content.substring(content.length() - suffix);
+            }
+            if (title == null) {
+                in = readRecord(revisions.offsets[number]);
+                NoteCodec.readId(in);
+                in.readByte();
+                title = NoteCodec.readString(in);
+                modified = in.readLong();
+            }
+            return new Note(id, title, content, head.getCreatedAt(), NoteCodec.fromEpochNanos(modified));
+        });
+    }
+
+    /**
+     * Write out queued changes and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (channel != null && channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    private void append(Note previous, Note updated) throws IOException {
+        if (channel == null) {
+            return;
+        }
+        Revisions revisions = revisionsById.computeIfAbsent(previous.getId(), id -> new Revisions());
+        String oldContent = previous.getContent();
+        String newContent = updated.getContent();
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(payload);
+        NoteCodec.writeId(out, previous);
+        boolean keyframe = revisions.count % KEYFRAME_INTERVAL == KEYFRAME_INTERVAL - 1;
+        out.writeByte(keyframe ? KEYFRAME : DELTA);
+        NoteCodec.writeString(out, previous.getTitle());
+        out.writeLong(NoteCodec.toEpochNanos(previous.getModifiedAt()));
+        if (keyframe) {
+            NoteCodec.writeString(out, oldContent);
+        } else {
+            int max = Math.min(oldContent.length(), newContent.length());
+            int prefix = 0;
+            while (prefix < max && oldContent.charAt(prefix) == newContent.charAt(prefix)) {
+                prefix++;
+            }
+            int suffix = 0;
+            while (suffix < max - prefix && oldContent.charAt(oldContent.length() - 1 - suffix)
+                    == newContent.charAt(newContent.length() - 1 - suffix)) {
+                suffix++;
+            }
+            out.writeInt(checksum(newContent));
+            out.writeInt(prefix);
+            out.writeInt(suffix);
+            NoteCodec.writeString(out, oldContent.substring(prefix, oldContent.length() - suffix));
+        }
+
+        byte[] bytes = payload.toByteArray();
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bytes.length);
+        record.putInt(bytes.length).putInt(crc(bytes)).put(bytes).flip();
+        long offset = size;
+        while (record.hasRemaining()) {
+            size += channel.write(record, size);
+        }
+        revisions.add(offset);
+        revisions.head = updated;
+    }
+
+    /**
+     * Build the index from the file and return the number of bytes that
+     * belong to notes no longer present
+     */
+    private long scan(Map<String, Note> current) throws IOException {
+        size = 0;
+        long dead = 0;
+        if (!file.exists()) {
+            return 0;
+        }
+        long length = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            while (length - size >= HEADER_SIZE) {
+                int payloadLength = in.readInt();
+                int checksum = in.readInt();
+                if (payloadLength <= 0 || payloadLength > length - size - HEADER_SIZE) {
+                    break;
+                }
+                byte[] payload = new byte[payloadLength];
+                in.readFully(payload);
+                if (crc(payload) != checksum) {
+                    break;
+                }
+                String id = NoteCodec.readId(new DataInputStream(new ByteArrayInputStream(payload)));
+                Note note = current.get(id);
+                if (note != null) {
+                    Revisions revisions = revisionsById.computeIfAbsent(id, k -> new Revisions());
+                    revisions.add(size);
+                    revisions.head = note;
+                } else {
+                    dead += HEADER_SIZE + payloadLength;
+                }
+                size += HEADER_SIZE + payloadLength;
+            }
+        }
+        if (size < length) {
+            System.err.println("Truncating torn note history tail at byte " + size);
+        }
+        return dead;
+    }
+
+    /**
+     * Copy the live records to a fresh file and switch to it
+     */
+    private void rewrite() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        long position = 0;
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Revisions revisions : revisionsById.values()) {
+                for (int i = 0; i < revisions.count; i++) {
+                    ByteBuffer record = readFrame(revisions.offsets[i]);
+                    revisions.offsets[i] = position;
+                    while (record.hasRemaining()) {
+                        position += out.write(record, position);
+                    }
+                }
+            }
+            out.force(false);
+        }
+        channel.close();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        size = position;
+    }
+
+    private ByteBuffer readFrame(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, offset);
+        header.flip();
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + header.getInt());
+        readFully(frame, offset);
+        frame.flip();
+        return frame;
+    }
+
+    private DataInputStream readRecord(long offset) throws IOException {
+        ByteBuffer frame = readFrame(offset);
+        return new DataInputStream(new ByteArrayInputStream(frame.array(), HEADER_SIZE, frame.limit() - HEADER_SIZE));
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated note history");
+            }
+        }
+    }
+
+    /**
+     * Run a task on the history thread after everything queued before it
+     */
+    /**
+     * Queue a change on the writer thread. Changes made after
+     * {@link #close()}, e.g. by a save racing the shutdown hook, are not
+     * recorded; the note store already holds them.
+     */
+    private void execute(Runnable task) {
+        try {
+            writer.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Already closed
+        }
+    }
+
+    private <T> T call(Callable<T> task) throws IOException {
+        try {
+            return writer.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading note history");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Note history is closed");
+        }
+    }
+
+    private static int checksum(String content) {
+        return crc(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-ordered 64-bit note ids.
+ *
+ * A generated key is [00][40 bits of milliseconds since 2024-01-01]
+ * [22-bit sequence]. Keys come from a single atomic counter, so they are
+ * unique and strictly increasing across threads even when many notes are
+ * created within one millisecond or the clock steps backwards. The string
+ * form is the key in 13 lowercase Crockford base-32 digits, which sorts in
+ * creation order.
+ *
+ * Ids from older versions keep their strings and map to keys in separate
+ * ranges: {@code note_<millis>_<n>} becomes [10][millis][n], anything
+ * else [11][62-bit hash].
+ */
+public final class NoteId {
+    private static final long EPOCH_MILLIS = 1704067200000L; // 2024-01-01T00:00:00Z
+    private static final int SEQUENCE_BITS = 22;
+    private static final int LEGACY_COUNTER_BITS = 10;
+    private static final long TAG_MASK = 3L << 62;
+    private static final long TAG_LEGACY = 2L << 62;
+    private static final long TAG_HASHED = 3L << 62;
+    private static final int LENGTH = 13;
+    private static final String LEGACY_PREFIX = "note_";
+    private static final char[] DIGITS = "0123456789abcdefghjkmnpqrstvwxyz".toCharArray();
+    private static final byte[] DIGIT_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(DIGIT_VALUES, (byte) -1);
+        for (int i = 0; i < DIGITS.length; i++) {
+            DIGIT_VALUES[DIGITS[i]] = (byte) i;
+        }
+    }
+
+    private static final AtomicLong last = new AtomicLong();
+
+    private NoteId() {
+    }
+
+    /**
+     * Next generated key, greater than every key handed out or observed so far
+     */
+    public static long next() {
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        while (true) {
+            long previous = last.get();
+            // A full sequence or a clock step back borrows from the next millisecond
+            long key = now > previous ? now : previous + 1;
+            if (last.compareAndSet(previous, key)) {
+                return key;
+            }
+        }
+    }
+
+    /**
+     * Make sure later keys sort after one loaded from disk
+     */
+    public static void observe(long key) {
+        if (isGenerated(key)) {
+            last.accumulateAndGet(key, Math::max);
+        }
+    }
+
+    /**
+     * Whether a key was generated by {@link #next()}, so its string form can
+     * be rebuilt from the key alone
+     */
+    public static boolean isGenerated(long key) {
+        return (key & TAG_MASK) == 0;
+    }
+
+    public static String format(long key) {
+        char[] chars = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = DIGITS[(int) (key & 31)];
+            key >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Key of an id string, generated or legacy
+     */
+    public static long key(String id) {
+        long key = parseGenerated(id);
+        if (key != -1) {
+            return key;
+        }
+        // Legacy keys are negative but never -1, whose tag is the hashed one
+        key = parseLegacy(id);
+        return key != -1 ? key : TAG_HASHED | (hash(id) & ~TAG_MASK);
+    }
+
+    private static long parseGenerated(String id) {
+        if (id.length() != LENGTH) {
+            return -1;
+        }
+        long key = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            int digit = digit(id.charAt(i));
+            if (digit < 0) {
+                return -1;
+            }
+            key = key << 5 | digit;
+        }
+        // The top digit holds the two tag bits, which are zero for generated keys
+        return isGenerated(key) ? key : -1;
+    }
+
+    private static int digit(char c) {
+        return c < DIGIT_VALUES.length ? DIGIT_VALUES[c] : -1;
+    }
+
+    /**
+     * {@code note_<millis>_<n>} with n below 1024, as written by older versions
+     */
+    private static long parseLegacy(String id) {
+        int separator = id.indexOf('_', LEGACY_PREFIX.length());
+        if (!id.startsWith(LEGACY_PREFIX) || separator < 0) {
+            return -1;
+        }
+        long millis = parseDigits(id, LEGACY_PREFIX.length(), separator, 1L << (62 - LEGACY_COUNTER_BITS));
+        long counter = parseDigits(id, separator + 1, id.length(), 1L << LEGACY_COUNTER_BITS);
+        if (millis < 0 || counter < 0) {
+            return -1;
+        }
+        return TAG_LEGACY | millis << LEGACY_COUNTER_BITS | counter;
+    }
+
+    /**
+     * Canonical decimal number in [start, end) below {@code limit}, or -1
+     */
+    private static long parseDigits(String s, int start, int end, long limit) {
+        if (start == end || end - start > 18 || (s.charAt(start) == '0' && end - start > 1)) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value < limit ? value : -1;
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 code units
+     */
+    private static long hash(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,264 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Derived indexes saved next to a snapshot, so a launch can reuse them
+ * instead of rebuilding them from every note.
+ *
+ * For the snapshot's notes, by position in the snapshot, the file holds
+ * their order newest first and, optionally, the trigram postings of the
+ * search index: the sorted trigram keys and for each the ascending
+ * positions of the notes containing it. Layout:
+ * [magic][version short][snapshot generation long][note count int]
+ * [order ints][key count int, -1 without postings][keys][list starts]
+ * [positions][CRC32 of everything before, as an int].
+ *
+ * A file whose generation is not that of the snapshot, or whose checksum
+ * fails, is rejected and the indexes are rebuilt. The postings are read in
+ * place from a read-only mapping rather than loaded onto the heap.
+ */
+final class NoteIndexFile {
+    static final int MAGIC = 0x4E494458; // "NIDX"
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 18;
+
+    private final int[] order;
+    private final long[] keys;
+    private final IntBuffer starts;
+    private final IntBuffer positions;
+
+    private NoteIndexFile(int[] order, long[] keys, IntBuffer starts, IntBuffer positions) {
+        this.order = order;
+        this.keys = keys;
+        this.starts = starts;
+        this.positions = positions;
+    }
+
+    /**
+     * Snapshot positions of the notes, newest first
+     */
+    int[] order() {
+        return order;
+    }
+
+    boolean hasPostings() {
+        return keys != null;
+    }
+
+    /**
+     * Index of a trigram among the keys, or a negative number if no note
+     * contains it
+     */
+    int find(long trigram) {
+        return Arrays.binarySearch(keys, trigram);
+    }
+
+    /**
+     * Where the list of key {@code index} starts; key {@code index + 1}
+     * gives where it ends
+     */
+    int postingsStart(int index) {
+        return starts.get(index);
+    }
+
+    int posting(int index) {
+        return positions.get(index);
+    }
+
+    /**
+     * Binary search for a position within {@code [from, to)} of the
+     * postings, with the result of {@link Arrays#binarySearch(int[], int)}
+     */
+    int searchPostings(int from, int to, int position) {
+        int low = from;
+        int high = to - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int value = positions.get(middle);
+            if (value < position) {
+                low = middle + 1;
+            } else if (value > position) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Write the indexes of a snapshot's notes. Writes a temporary file and
+     * moves it into place, so a reader sees either the old file or the new.
+     */
+    static void write(File file, long generation, List<Note> notes, Comparator<Note> newestFirst,
+            boolean withPostings) throws IOException {
+        Integer[] sorted = new Integer[notes.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (a, b) -> newestFirst.compare(notes.get(a), notes.get(b)));
+
+        File tmp = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(
+                    new CheckedOutputStream(new BufferedOutputStream(fos, 1 << 16), crc));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(generation);
+            out.writeInt(notes.size());
+            for (int position : sorted) {
+                out.writeInt(position);
+            }
+            if (withPostings) {
+                writePostings(out, notes);
+            } else {
+                out.writeInt(-1);
+            }
+            out.flush();
+            new DataOutputStream(fos).writeInt((int) crc.getValue());
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Group the distinct trigrams of each note by key, then write the keys
+     * in order with their lists
+     */
+    private static void writePostings(DataOutputStream out, List<Note> notes) throws IOException {
+        Map<Long, int[]> lists = new HashMap<>();
+        long[] trigrams = new long[256];
+        for (int position = 0; position < notes.size(); position++) {
+            Note note = notes.get(position);
+            String title = note.getTitle();
+            String content = note.scanContent();
+            int count = Math.max(0, title.length() - 2) + Math.max(0, content.length() - 2);
+            if (trigrams.length < count) {
+                trigrams = new long[Math.max(count, trigrams.length * 2)];
+            }
+            int n = 0;
+            for (int i = 0; i + 3 <= title.length(); i++) {
+                trigrams[n++] = NoteSearchIndex.trigram(title, i);
+            }
+            for (int i = 0; i + 3 <= content.length(); i++) {
+                trigrams[n++] = NoteSearchIndex.trigram(content, i);
+            }
+            Arrays.sort(trigrams, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (i > 0 && trigrams[i] == trigrams[i - 1]) {
+                    continue;
+                }
+                // Slot 0 holds the list's length
+                int[] list = lists.get(trigrams[i]);
+                if (list == null) {
+                    list = new int[4];
+                    lists.put(trigrams[i], list);
+                } else if (list[0] + 1 == list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                    lists.put(trigrams[i], list);
+                }
+                list[++list[0]] = position;
+            }
+        }
+
+        long[] keys = new long[lists.size()];
+        int k = 0;
+        for (Long key : lists.keySet()) {
+            keys[k++] = key;
+        }
+        Arrays.sort(keys);
+        out.writeInt(keys.length);
+        for (long key : keys) {
+            out.writeLong(key);
+        }
+        int start = 0;
+        for (long key : keys) {
+            out.writeInt(start);
+            start += lists.get(key)[0];
+        }
+        out.writeInt(start);
+        for (long key : keys) {
+            int[] list = lists.get(key);
+            for (int i = 1; i <= list[0]; i++) {
+                out.writeInt(list[i]);
+            }
+        }
+    }
+
+    /**
+     * Read the indexes saved for the snapshot of a given generation and
+     * note count, or return null if there are none for it. Throws if the
+     * file is corrupt.
+     */
+    static NoteIndexFile read(File file, long generation, int count) throws IOException {
+        if (generation == 0 || !file.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + 8) {
+                throw new IOException("Truncated note index file");
+            }
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // Positional reads until the header is full
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || (header.getShort() & 0xFFFF) != VERSION) {
+                return null;
+            }
+            if (header.getLong() != generation || header.getInt() != count) {
+                return null;
+            }
+
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32 crc = new CRC32();
+            ByteBuffer checked = map.duplicate();
+            checked.limit((int) size - 4);
+            crc.update(checked);
+            if ((int) crc.getValue() != map.getInt((int) size - 4)) {
+                throw new IOException("Note index file fails its checksum");
+            }
+
+            if (HEADER_SIZE + 4L * count + 4 > size - 4) {
+                throw new IOException("Corrupt note index file");
+            }
+            map.position(HEADER_SIZE);
+            int[] order = new int[count];
+            map.asIntBuffer().get(order);
+            map.position(HEADER_SIZE + 4 * count);
+            int keyCount = map.getInt();
+            if (keyCount < 0) {
+                return new NoteIndexFile(order, null, null, null);
+            }
+            long postingsOffset = map.position() + 12L * keyCount + 4;
+            if (postingsOffset > size - 4
+                    || postingsOffset + 4L * map.getInt((int) postingsOffset - 4) != size - 4) {
+                throw new IOException("Corrupt note index file");
+            }
+            long[] keys = new long[keyCount];
+            map.asLongBuffer().get(keys);
+            map.position(map.position() + 8 * keyCount);
+            IntBuffer starts = map.slice().asIntBuffer();
+            starts.limit(keyCount + 1);
+            map.position(map.position() + 4 * (keyCount + 1));
+            IntBuffer positions = map.slice().asIntBuffer();
+            positions.limit(starts.get(keyCount));
+            return new NoteIndexFile(order, keys, starts, positions);
+        }
+    }
+}
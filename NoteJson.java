@@ -0,0 +1,300 @@
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for notes: writing a note as one object and reading back
+ * objects of scalar values, with arrays and objects nested one level for
+ * tags and metadata. Kept in-house so the app stays free of external
+ * dependencies.
+ */
+final class NoteJson {
+    private NoteJson() {
+    }
+
+    /**
+     * One note as a single-line JSON object
+     */
+    static void writeNote(StringBuilder out, Note note) {
+        out.append("{\"id\":");
+        quote(out, note.getId());
+        out.append(",\"title\":");
+        quote(out, note.getTitle());
+        out.append(",\"content\":");
+        quote(out, note.scanContent());
+        out.append(",\"createdAt\":");
+        quote(out, note.getCreatedAt().toString());
+        out.append(",\"modifiedAt\":");
+        quote(out, note.getModifiedAt().toString());
+        if (!note.getTags().isEmpty()) {
+            out.append(",\"tags\":[");
+            boolean first = true;
+            for (String tag : note.getTags()) {
+                if (!first) {
+                    out.append(',');
+                }
+                quote(out, tag);
+                first = false;
+            }
+            out.append(']');
+        }
+        if (!note.getMetadata().isEmpty()) {
+            out.append(",\"metadata\":{");
+            boolean first = true;
+            for (Map.Entry<String, String> entry : note.getMetadata().entrySet()) {
+                if (!first) {
+                    out.append(',');
+                }
+                quote(out, entry.getKey());
+                out.append(':');
+                quote(out, entry.getValue());
+                first = false;
+            }
+            out.append('}');
+        }
+        out.append('}');
+    }
+
+    /**
+     * Build a note from an object written by {@link #writeNote}. Missing
+     * fields get defaults; a missing id yields a freshly generated one.
+     */
+    static Note readNote(Map<String, String> fields) {
+        String title = fields.getOrDefault("title", "Untitled");
+        String content = fields.getOrDefault("content", "");
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime createdAt = fields.containsKey("createdAt") ? LocalDateTime.parse(fields.get("createdAt")) : now;
+        LocalDateTime modifiedAt = fields.containsKey("modifiedAt") ? LocalDateTime.parse(fields.get("modifiedAt")) : createdAt;
+        String id = fields.get("id");
+        if (id == null || id.isEmpty()) {
+            id = NoteId.format(NoteId.next());
+        }
+        return new Note(id, title, content, createdAt, modifiedAt, tags(fields), metadata(fields));
+    }
+
+    /**
+     * The "tags" array of a parsed object, or an empty list
+     */
+    static List<String> tags(Map<String, String> fields) {
+        String tags = fields.get("tags");
+        return tags != null ? parseArray(tags) : Collections.emptyList();
+    }
+
+    /**
+     * The "metadata" object of a parsed object, or an empty map
+     */
+    static Map<String, String> metadata(Map<String, String> fields) {
+        String metadata = fields.get("metadata");
+        return metadata != null ? parseObject(metadata) : Collections.emptyMap();
+    }
+
+    static void quote(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Parse an object whose values are strings, numbers, booleans or null.
+     * Non-string values are returned as their literal text, nested arrays
+     * and objects as their JSON text; null values are left out.
+     *
+     * @throws IllegalArgumentException if the text is not such an object
+     */
+    static Map<String, String> parseObject(String text) {
+        Parser parser = new Parser(text);
+        Map<String, String> fields = parser.object();
+        parser.finish();
+        return fields;
+    }
+
+    /**
+     * Parse an array the way {@link #parseObject} parses object values
+     *
+     * @throws IllegalArgumentException if the text is not an array
+     */
+    static List<String> parseArray(String text) {
+        Parser parser = new Parser(text);
+        parser.skipWhitespace();
+        List<String> values = parser.array();
+        parser.finish();
+        return values;
+    }
+
+    private static final class Parser {
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Map<String, String> object() {
+            Map<String, String> fields = new LinkedHashMap<>();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return fields;
+            }
+            while (true) {
+                skipWhitespace();
+                String key = string();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                String value = value();
+                if (value != null) {
+                    fields.put(key, value);
+                }
+                skipWhitespace();
+                char c = next();
+                if (c == '}') {
+                    return fields;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        List<String> array() {
+            List<String> values = new ArrayList<>();
+            expect('[');
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return values;
+            }
+            while (true) {
+                skipWhitespace();
+                String value = value();
+                if (value != null) {
+                    values.add(value);
+                }
+                skipWhitespace();
+                char c = next();
+                if (c == ']') {
+                    return values;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or ']'");
+                }
+            }
+        }
+
+        private String value() {
+            if (peek() == '"') {
+                return string();
+            }
+            if (peek() == '[' || peek() == '{') {
+                int start = pos;
+                if (peek() == '[') {
+                    array();
+                } else {
+                    object();
+                }
+                return text.substring(start, pos);
+            }
+            int start = pos;
+            while (pos < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos)) < 0) {
+                pos++;
+            }
+            String literal = text.substring(start, pos);
+            if (literal.isEmpty()) {
+                throw error("Expected a value");
+            }
+            return literal.equals("null") ? null : literal;
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case '"': case '\\': case '/': value.append(escaped); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("Truncated escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Bad unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        throw error("Bad escape");
+                }
+            }
+        }
+
+        void finish() {
+            skipWhitespace();
+            if (pos != text.length()) {
+                throw error("Unexpected trailing characters");
+            }
+        }
+
+        void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char peek() {
+            return pos < text.length() ? text.charAt(pos) : 0;
+        }
+
+        private char next() {
+            if (pos >= text.length()) {
+                throw error("Unexpected end of input");
+            }
+            return text.charAt(pos++);
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                pos--;
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at column " + (pos + 1));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * List model that reads rows from NoteManager on demand.
+ *
+ * In "all notes" mode rows come straight from the manager's sorted view a
+ * page at a time, so only the rows the list actually paints are fetched.
+ * In "results" mode the model wraps a search result list without copying
+ * it. Switching content fires at most one removal or addition event plus
+ * one change event, regardless of the number of rows. The row count
+ * follows notes added or deleted in the manager, so the list never asks
+ * for a row the store no longer has.
+ */
+public class NoteListModel extends AbstractListModel<Note> {
+    private static final long serialVersionUID = 1L;
+    private static final int PAGE_SIZE = 64;
+    // Row shown while the store is already empty and the list not yet told
+    private static final Note GONE = new Note("", "", "", LocalDateTime.MIN, LocalDateTime.MIN);
+
+    private final NoteManager noteManager;
+    private List<Note> results;
+    private int size;
+    private List<Note> page = Collections.emptyList();
+    private int pageStart;
+
+    public NoteListModel(NoteManager noteManager) {
+        this.noteManager = noteManager;
+        noteManager.addCountListener(() -> {
+            if (SwingUtilities.isEventDispatchThread()) {
+                countChanged();
+            } else {
+                SwingUtilities.invokeLater(this::countChanged);
+            }
+        });
+    }
+
+    /**
+     * Show every note, newest first
+     */
+    public void showAll() {
+        results = null;
+        replaceContents(noteManager.getNotesCount());
+    }
+
+    /**
+     * Show a search result list
+     */
+    public void showResults(List<Note> results) {
+        this.results = results;
+        replaceContents(results.size());
+    }
+
+    /**
+     * Row of a note in the current contents, or -1
+     */
+    public int indexOf(Note note) {
+        if (results != null) {
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i).getId().equals(note.getId())) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int index = noteManager.indexOfNote(note.getId());
+        return index < size ? index : -1;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Note getElementAt(int index) {
+        if (results != null) {
+            return results.get(index);
+        }
+        if (index < pageStart || index >= pageStart + page.size()) {
+            pageStart = index - index % PAGE_SIZE;
+            page = noteManager.getNotesSortedByDate(pageStart, PAGE_SIZE);
+            if (index >= pageStart + page.size()) {
+                // Deleted on another thread; the new count is on its way to
+                // this one, so show the last row for now
+                int last = noteManager.getNotesCount() - 1;
+                pageStart = Math.max(0, last);
+                page = noteManager.getNotesSortedByDate(pageStart, 1);
+                return page.isEmpty() ? GONE : page.get(0);
+            }
+        }
+        return page.get(index - pageStart);
+    }
+
+    /**
+     * In "all notes" mode, take the manager's new note count
+     */
+    private void countChanged() {
+        if (results == null) {
+            replaceContents(noteManager.getNotesCount());
+        }
+    }
+
+    private void replaceContents(int newSize) {
+        int oldSize = size;
+        size = newSize;
+        page = Collections.emptyList();
+        if (newSize < oldSize) {
+            fireIntervalRemoved(this, newSize, oldSize - 1);
+        } else if (newSize > oldSize) {
+            fireIntervalAdded(this, oldSize, newSize - 1);
+        }
+        if (Math.min(oldSize, newSize) > 0) {
+            fireContentsChanged(this, 0, Math.min(oldSize, newSize) - 1);
+        }
+    }
+}
@@ -0,0 +1,654 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of note mutations.
+ *
+ * Every record is framed as [length][crc32][payload], so a write torn by a
+ * crash is detected on replay and cut off.
+ *
+ * Appends only queue the record in memory and return at once. A dedicated
+ * writer thread drains the queue after a short coalescing window: several
+ * changes to one note collapse into the latest, a note added and deleted
+ * in the same window never reaches the disk, and the whole batch costs one
+ * write and one fsync. Batches that fail to write stay queued, ahead of
+ * later changes, and are retried after a pause; whoever waits on them is
+ * told of the failure.
+ *
+ * An edit record carries only the ranges of the body that changed, so
+ * saving a small change to a large note writes a small record. It applies
+ * to the body as of the record before it and names that body's length and
+ * {@link String#hashCode()}, which replay checks. An edit replayed a second
+ * time, e.g. from a segment whose snapshot was saved just before a crash,
+ * then finds a different body and is skipped instead of applied twice.
+ */
+public class NoteLog implements Closeable {
+    public static final byte OP_ADD = 1;
+    public static final byte OP_UPDATE = 2;
+    public static final byte OP_DELETE = 3;
+    public static final byte OP_CLEAR = 4;
+    public static final byte OP_EDIT = 6;
+    // Edit records written before they named their base's hash
+    private static final byte OP_UNHASHED_EDIT = 5;
+
+    private static final int HEADER_SIZE = 8;
+    private static final long COALESCE_WINDOW_MS = 50;
+    private static final long RETRY_DELAY_MS = 1000;
+
+    /**
+     * Receives records in log order during replay
+     */
+    public interface Replayer {
+        void put(Note note);
+        void delete(String id);
+        void clear();
+
+        /**
+         * Apply edits to the body of a note, which should be
+         * {@code baseLength} characters long with a hash code of
+         * {@code baseHash}, null for records of older versions. A body that
+         * does not match has already moved past the edits. {@code header}
+         * holds the new title, modification time and attributes and an
+         * empty body.
+         */
+        void edit(Note header, int baseLength, Integer baseHash, List<NoteEdit> edits);
+    }
+
+    /**
+     * A queued add, update, edit or delete; deletes carry no note
+     */
+    private static final class Record {
+        final byte op;
+        final Note note;
+        // Body an edit applies to; hashed by the writer, off the caller's lock
+        final String base;
+        final List<NoteEdit> edits;
+        // Edit of the same note queued before this one, written first
+        final Record previous;
+        // Whether this replaced a delete of the same id queued in the batch,
+        // so the disk may still hold the note
+        final boolean replacedDelete;
+
+        Record(byte op, Note note, Record replaced) {
+            this(op, note, null, null, null, replaced);
+        }
+
+        Record(byte op, Note note, String base, List<NoteEdit> edits, Record previous, Record replaced) {
+            this.op = op;
+            this.note = note;
+            this.base = base;
+            this.edits = edits;
+            this.previous = previous;
+            this.replacedDelete = replaced != null && (replaced.op == OP_DELETE || replaced.replacedDelete);
+        }
+    }
+
+    /**
+     * Changes queued between two writes, at most one record per note
+     */
+    private static final class Batch {
+        boolean clear;
+        final Map<String, Record> records = new LinkedHashMap<>();
+        final List<CompletableFuture<Void>> waiters = new ArrayList<>();
+        // Run on the compaction thread once this batch ends the rotated segment
+        Runnable afterRotate;
+        // Run instead if the log could not be rotated after this batch
+        Runnable notRotated;
+
+        boolean isEmpty() {
+            return !clear && records.isEmpty() && waiters.isEmpty() && afterRotate == null;
+        }
+    }
+
+    private final File logFile;
+    private final File pendingFile;
+    private final ExecutorService compactor;
+    private final Object lock = new Object();
+    private final List<Batch> sealed = new ArrayList<>();
+    private Batch current = new Batch();
+    private Thread writer;
+    private volatile boolean closing;
+    private FileChannel channel;
+    private volatile long size;
+    private final NoteMetrics.Timer commitTimer;
+    private final NoteMetrics.Histogram commitBytes;
+    private final LongAdder writeErrors;
+
+    public NoteLog(String logFile) {
+        this(logFile, new NoteMetrics());
+    }
+
+    /**
+     * A log that reports each group commit, its size and any write failure
+     * to the given metrics
+     */
+    public NoteLog(String logFile, NoteMetrics metrics) {
+        this.logFile = new File(logFile);
+        this.commitTimer = metrics.timer("log.commit");
+        this.commitBytes = metrics.distribution("log.commitBytes", "bytes");
+        this.writeErrors = metrics.counter("log.writeErrors");
+        this.pendingFile = new File(logFile + ".compacting");
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "note-log-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Replay the segment left behind by an interrupted compaction, then the
+     * live log. A corrupt or torn tail of the live log is truncated away.
+     */
+    public void replay(Replayer replayer) throws IOException {
+        if (pendingFile.exists()) {
+            replaySegment(pendingFile, replayer);
+        }
+        if (logFile.exists()) {
+            long validLength = replaySegment(logFile, replayer);
+            if (validLength < logFile.length()) {
+                System.err.println("Truncating torn note log tail at byte " + validLength);
+                try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+                    raf.setLength(validLength);
+                }
+            }
+        }
+    }
+
+    /**
+     * Open the live log for appending and start the writer thread
+     */
+    public void open() throws IOException {
+        channel = FileChannel.open(logFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+        writer = new Thread(this::writeLoop, "note-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queue an add or update. The note is copied, so later edits to it do
+     * not leak into this record.
+     */
+    public void appendPut(byte op, Note note) {
+        Note copy = note.copy();
+        synchronized (lock) {
+            Record previous = current.records.get(note.getId());
+            // An add followed by updates in one batch is still an add
+            byte effectiveOp = previous != null && previous.op == OP_ADD ? OP_ADD : op;
+            current.records.put(note.getId(), new Record(effectiveOp, copy, previous));
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Queue a group of adds or updates with a single hand-off to the writer
+     */
+    public void appendPuts(byte op, List<Note> notes) {
+        List<Note> copies = new ArrayList<>(notes.size());
+        for (Note note : notes) {
+            copies.add(note.copy());
+        }
+        synchronized (lock) {
+            for (Note copy : copies) {
+                Record previous = current.records.get(copy.getId());
+                byte effectiveOp = previous != null && previous.op == OP_ADD ? OP_ADD : op;
+                current.records.put(copy.getId(), new Record(effectiveOp, copy, previous));
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Queue an edit that turns the body {@code base} into the body of
+     * {@code note}. Following an add or update of the same note still in
+     * the queue, the full note is written instead.
+     */
+    public void appendEdit(Note note, String base, List<NoteEdit> edits) {
+        Note copy = note.copy();
+        List<NoteEdit> ranges = new ArrayList<>(edits);
+        synchronized (lock) {
+            Record previous = current.records.get(note.getId());
+            Record record;
+            if (previous == null || previous.op == OP_EDIT) {
+                record = new Record(OP_EDIT, copy, base, ranges, previous, previous);
+            } else {
+                record = new Record(previous.op == OP_ADD ? OP_ADD : OP_UPDATE, copy, previous);
+            }
+            current.records.put(note.getId(), record);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Queue a delete. Deleting a note added in the same batch writes
+     * nothing, unless the add followed a delete of the same id that it
+     * replaced in the queue.
+     */
+    public void appendDelete(String id) {
+        synchronized (lock) {
+            Record previous = current.records.remove(id);
+            if (previous == null || previous.op != OP_ADD || previous.replacedDelete) {
+                current.records.put(id, new Record(OP_DELETE, null, null));
+            }
+            lock.notifyAll();
+        }
+    }
+
+    public void appendClear() {
+        synchronized (lock) {
+            current.records.clear();
+            current.clear = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Future completed once everything queued so far is durable on disk
+     */
+    public CompletableFuture<Void> flush() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        synchronized (lock) {
+            if (closing) {
+                done.complete(null);
+                return done;
+            }
+            current.waiters.add(done);
+            lock.notifyAll();
+        }
+        return done;
+    }
+
+    /**
+     * Bytes written to the live log
+     */
+    public long size() {
+        return size;
+    }
+
+    public boolean hasPendingSegment() {
+        return pendingFile.exists();
+    }
+
+    /**
+     * Seal the live log as the pending compaction segment after everything
+     * queued so far is written, then run {@code afterRotate} in the
+     * background. It must write a snapshot covering the segment and call
+     * {@link #discardPending()}. If the log cannot be moved aside,
+     * {@code notRotated} runs on the writer thread instead and the records
+     * stay in the live log. Must not be called while a segment is still
+     * pending; its records would be in no snapshot.
+     */
+    public void rotate(Runnable afterRotate, Runnable notRotated) {
+        synchronized (lock) {
+            current.afterRotate = afterRotate;
+            current.notRotated = notRotated;
+            sealed.add(current);
+            current = new Batch();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Run {@code compaction} in the background without rotating, to retry
+     * the snapshot of a segment left pending by a failed compaction
+     */
+    public void retryCompaction(Runnable compaction) {
+        compactor.execute(compaction);
+    }
+
+    /**
+     * Drop the pending segment after its contents reached the snapshot
+     */
+    public void discardPending() throws IOException {
+        Files.deleteIfExists(pendingFile.toPath());
+    }
+
+    /**
+     * Delete the live log; only valid before {@link #open()}, right after a
+     * snapshot of the full state was written
+     */
+    public void reset() throws IOException {
+        Files.deleteIfExists(logFile.toPath());
+    }
+
+    /**
+     * Write everything still queued, finish background work, then close
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closing) {
+                return;
+            }
+            closing = true;
+            lock.notifyAll();
+        }
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(5, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (channel != null && channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            List<Batch> batches;
+            synchronized (lock) {
+                while (!closing && sealed.isEmpty() && current.isEmpty()) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closing && sealed.isEmpty() && current.isEmpty()) {
+                    return;
+                }
+            }
+            if (!closing) {
+                // Give a burst of edits the chance to coalesce into one write
+                try {
+                    Thread.sleep(COALESCE_WINDOW_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (lock) {
+                if (!current.isEmpty()) {
+                    sealed.add(current);
+                    current = new Batch();
+                }
+                batches = new ArrayList<>(sealed);
+                sealed.clear();
+            }
+            if (!writeBatches(batches)) {
+                awaitRetry();
+            }
+        }
+    }
+
+    /**
+     * Pause after a failed write, unless the log is closing
+     */
+    private void awaitRetry() {
+        long deadline = System.currentTimeMillis() + RETRY_DELAY_MS;
+        synchronized (lock) {
+            long remaining;
+            while (!closing && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write batches in order and return whether all of them reached the
+     * disk. The batches from the first that failed on are queued again,
+     * unless the log is closing.
+     */
+    private boolean writeBatches(List<Batch> batches) {
+        IOException failure = null;
+        NoteMetrics.Sample sample = commitTimer.start();
+        long written = 0;
+        int records = 0;
+        int done = 0;
+        try {
+            for (Batch batch : batches) {
+                written += write(batch);
+                records += batch.records.size();
+                done++;
+                if (batch.afterRotate != null) {
+                    startCompaction(batch);
+                }
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            System.err.println("Error writing note log: " + e.getMessage());
+            writeErrors.increment();
+            failure = e;
+        }
+        if (written > 0) {
+            sample.stop(records, written);
+            commitBytes.record(written);
+        }
+        for (Batch batch : batches) {
+            for (CompletableFuture<Void> waiter : batch.waiters) {
+                if (failure == null) {
+                    waiter.complete(null);
+                } else {
+                    waiter.completeExceptionally(failure);
+                }
+            }
+            batch.waiters.clear();
+        }
+        if (done < batches.size()) {
+            List<Batch> unwritten = batches.subList(done, batches.size());
+            synchronized (lock) {
+                if (closing) {
+                    System.err.println("Note log closed with " + unwritten.size() + " unwritten batches");
+                    for (Batch batch : unwritten) {
+                        if (batch.notRotated != null) {
+                            batch.notRotated.run();
+                        }
+                    }
+                } else {
+                    sealed.addAll(0, unwritten);
+                }
+            }
+        }
+        return failure == null;
+    }
+
+    /**
+     * Rotate the log after the batch that ends a segment and hand the
+     * segment to its compaction. If the rotation fails the batch is still
+     * written, its records stay in the live log and the compaction is told
+     * to give up.
+     */
+    private void startCompaction(Batch batch) {
+        try {
+            rotateSegment();
+        } catch (IOException e) {
+            System.err.println("Error rotating note log: " + e.getMessage());
+            writeErrors.increment();
+            batch.notRotated.run();
+            return;
+        }
+        compactor.execute(batch.afterRotate);
+    }
+
+    /**
+     * Append one batch and return the number of bytes written. A failed
+     * write is cut off again, so a retry does not follow a torn record.
+     */
+    private long write(Batch batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        DataOutputStream out = new DataOutputStream(bytes);
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+        DataOutputStream payloadOut = new DataOutputStream(payload);
+        if (batch.clear) {
+            payload.write(OP_CLEAR);
+            frame(out, payload);
+        }
+        for (Map.Entry<String, Record> entry : batch.records.entrySet()) {
+            Record record = entry.getValue();
+            if (record.op == OP_EDIT) {
+                writeEdit(out, payload, payloadOut, record);
+                continue;
+            }
+            payloadOut.writeByte(record.op);
+            if (record.op == OP_DELETE) {
+                NoteCodec.writeString(payloadOut, entry.getKey());
+            } else {
+                NoteCodec.writeNote(payloadOut, record.note);
+            }
+            frame(out, payload);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(size);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        size += bytes.size();
+        return bytes.size();
+    }
+
+    /**
+     * Frame an edit record after the earlier edits it follows
+     */
+    private static void writeEdit(DataOutputStream out, ByteArrayOutputStream payload, DataOutputStream payloadOut,
+            Record record) throws IOException {
+        if (record.previous != null) {
+            writeEdit(out, payload, payloadOut, record.previous);
+        }
+        Note note = record.note;
+        payloadOut.writeByte(OP_EDIT);
+        NoteCodec.writeString(payloadOut, note.getId());
+        NoteCodec.writeString(payloadOut, note.getTitle());
+        payloadOut.writeLong(NoteCodec.toEpochNanos(note.getModifiedAt()));
+        NoteCodec.writeAttributes(payloadOut, note);
+        payloadOut.writeInt(record.base.length());
+        payloadOut.writeInt(record.base.hashCode());
+        payloadOut.writeInt(record.edits.size());
+        for (NoteEdit edit : record.edits) {
+            payloadOut.writeInt(edit.getOffset());
+            payloadOut.writeInt(edit.getRemoved());
+            NoteCodec.writeString(payloadOut, edit.getText());
+        }
+        frame(out, payload);
+    }
+
+    private static void frame(DataOutputStream out, ByteArrayOutputStream payload) throws IOException {
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        out.writeInt(bytes.length);
+        out.writeInt((int) crc.getValue());
+        out.write(bytes);
+        payload.reset();
+    }
+
+    /**
+     * Move the live log aside as the pending segment. Refuses to replace a
+     * segment still pending, which holds records in no snapshot.
+     */
+    private void rotateSegment() throws IOException {
+        if (pendingFile.exists()) {
+            throw new IOException("Note log segment " + pendingFile + " is still waiting for compaction");
+        }
+        channel.force(false);
+        channel.close();
+        try {
+            Files.move(logFile.toPath(), pendingFile.toPath());
+        } finally {
+            // Keep appending to whichever file is live now
+            channel = FileChannel.open(logFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            size = channel.size();
+        }
+    }
+
+    /**
+     * Apply every intact record of a segment and return the length of the
+     * valid prefix
+     */
+    private long replaySegment(File segment, Replayer replayer) throws IOException {
+        long valid = 0;
+        long length = segment.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)))) {
+            while (length - valid >= HEADER_SIZE) {
+                int payloadLength = in.readInt();
+                int checksum = in.readInt();
+                if (payloadLength <= 0 || payloadLength > length - valid - HEADER_SIZE) {
+                    break;
+                }
+                byte[] payload = new byte[payloadLength];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, payload.length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                applyRecord(payload, replayer);
+                valid += HEADER_SIZE + payloadLength;
+            }
+        }
+        return valid;
+    }
+
+    private void applyRecord(byte[] payload, Replayer replayer) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        switch (op) {
+            case OP_ADD:
+            case OP_UPDATE:
+                replayer.put(NoteCodec.readNote(in));
+                break;
+            case OP_DELETE:
+                replayer.delete(NoteCodec.readString(in));
+                break;
+            case OP_CLEAR:
+                replayer.clear();
+                break;
+            case OP_EDIT:
+            case OP_UNHASHED_EDIT:
+                readEdit(in, op == OP_EDIT, replayer);
+                break;
+            default:
+                throw new IOException("Unknown note log record type " + op);
+        }
+    }
+
+    private static void readEdit(DataInputStream in, boolean hashed, Replayer replayer) throws IOException {
+        String id = NoteCodec.readString(in);
+        String title = NoteCodec.readString(in);
+        LocalDateTime modifiedAt = NoteCodec.fromEpochNanos(in.readLong());
+        Note header = new Note(id, title, "", modifiedAt, modifiedAt,
+                NoteCodec.readTags(in), NoteCodec.readMetadata(in));
+        int baseLength = in.readInt();
+        Integer baseHash = hashed ? in.readInt() : null;
+        int count = in.readInt();
+        List<NoteEdit> edits = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            edits.add(new NoteEdit(in.readInt(), in.readInt(), NoteCodec.readString(in)));
+        }
+        replayer.edit(header, baseLength, baseHash, edits);
+    }
+}
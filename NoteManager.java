@@ -1,136 +1,1177 @@
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * Manages all note operations including CRUD, search, and persistence
+ * Manages all note operations including CRUD, search, and persistence.
+ *
+ * Safe for use from many threads. Lookups by id are lock-free; listings and
+ * searches share a read lock; mutations take a write lock. Notes are never
+ * modified in place: an update publishes a new {@link Note} instance, so
+ * any list a caller holds is a consistent snapshot that later edits cannot
+ * change.
  */
 public class NoteManager {
-    private List<Note> notes;
+    private static final long COMPACT_MIN_LOG_BYTES = 4L * 1024 * 1024;
+    // Filters matching at most 1/8 of the notes verify a text query on each
+    // match rather than going through the search index
+    private static final int SELECTIVE_FILTER_RATIO = 8;
+    private static final int MAX_HISTOGRAM_BUCKETS = 10_000;
+    /** Notes one fork/join task scans before it stops splitting */
+    private static final int SCAN_GRAIN = 512;
+    private static final Comparator<Note> NEWEST_FIRST = (n1, n2) -> {
+        int byDate = n2.getModifiedAt().compareTo(n1.getModifiedAt());
+        if (byDate != 0) {
+            return byDate;
+        }
+        int byKey = Long.compare(n1.getKey(), n2.getKey());
+        return byKey != 0 ? byKey : n1.getId().compareTo(n2.getId());
+    };
+    
+    private final Map<String, Note> notesById = new ConcurrentHashMap<>();
+    private final NoteOrderIndex notesByModified = new NoteOrderIndex(NEWEST_FIRST);
+    private final NoteAttributeIndex attributes = new NoteAttributeIndex();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     private final String DATA_FILE = "notes.dat";
+    private final String LOG_FILE = "notes.log";
+    private final String HISTORY_FILE = "notes.history";
+    private final String INDEX_FILE = "notes.idx";
+    private final NoteManagerConfig config;
+    private final File dataFile;
+    private final File indexFile;
+    private final Object indexFileLock = new Object();
+    private final NoteLog log;
+    private final NoteHistory history;
+    // Null unless large bodies are kept compressed
+    private final NoteCompression compression;
+    // Decoded copies of lazy and compressed bodies
+    private final NoteBodyCache bodyCache;
+    // Loads snapshots and scans notes; null when parallelism is 1
+    private final ForkJoinPool pool;
+    private final Map<String, Note.LazyBody> pinnedBodies = new ConcurrentHashMap<>();
+    // Built on first search when bodies are lazy, so startup never decodes them
+    private volatile NoteSearchIndex searchIndex;
+    // Built on first ranked search
+    private volatile NoteRankedIndex rankedIndex;
+    // Notes changed by editNote that each text index still holds in an
+    // older version, keyed by id; see refreshTextIndexes. An index built
+    // after the edit holds the current version, so each keeps its own map.
+    private final Map<String, Note> staleSearch = new ConcurrentHashMap<>();
+    private final Map<String, Note> staleRanked = new ConcurrentHashMap<>();
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+    private final List<Runnable> countListeners = new CopyOnWriteArrayList<>();
+    // Snapshot of a compaction that failed to save, covering the pending segment
+    private volatile List<Note> unsavedSnapshot;
+    // Generation of the snapshot on disk
+    private volatile long snapshotGeneration;
+    // The notes of the snapshot loaded at startup, its generation and the
+    // indexes saved with it, kept until the search index is built
+    private List<Note> snapshotNotes;
+    private long loadedGeneration;
+    private NoteIndexFile savedIndexes;
+    private final Thread shutdownHook = new Thread(this::closeLog, "note-manager-shutdown");
+    private volatile long snapshotSize;
+    private final NoteMetrics metrics = new NoteMetrics();
+    private final NoteMetrics.Timer addTimer = metrics.timer("notes.add");
+    private final NoteMetrics.Timer addBatchTimer = metrics.timer("notes.addBatch");
+    private final NoteMetrics.Timer updateTimer = metrics.timer("notes.update");
+    private final NoteMetrics.Timer editTimer = metrics.timer("notes.edit");
+    private final NoteMetrics.Timer deleteTimer = metrics.timer("notes.delete");
+    private final NoteMetrics.Timer searchTimer = metrics.timer("notes.search");
+    private final NoteMetrics.Timer filterTimer = metrics.timer("notes.filter");
+    private final NoteMetrics.Timer rankedTimer = metrics.timer("notes.searchRanked");
+    private final NoteMetrics.Timer listTimer = metrics.timer("notes.list");
+    private final NoteMetrics.Timer saveTimer = metrics.timer("snapshot.save");
+    private final NoteMetrics.Histogram saveBytes = metrics.distribution("snapshot.bytes", "bytes");
     
     public NoteManager() {
-        this.notes = new ArrayList<>();
+        this(NoteManagerConfig.fromSystemProperties());
+    }
+    
+    public NoteManager(NoteManagerConfig config) {
+        this.config = config;
+        config.getDataDirectory().mkdirs();
+        this.dataFile = new File(config.getDataDirectory(), DATA_FILE);
+        this.indexFile = new File(config.getDataDirectory(), INDEX_FILE);
+        this.log = new NoteLog(new File(config.getDataDirectory(), LOG_FILE).getPath(), metrics);
+        this.bodyCache = new NoteBodyCache(config.getBodyCacheBytes());
+        this.compression = config.isCompressBodies()
+                ? new NoteCompression(config.getCompressionThreshold(), bodyCache)
+                : null;
+        this.history = new NoteHistory(new File(config.getDataDirectory(), HISTORY_FILE));
+        this.pool = config.getParallelism() > 1 ? new ForkJoinPool(config.getParallelism()) : null;
+        NoteMetrics.Sample load = metrics.timer("notes.load").start();
         loadNotes();
+        snapshotSize = dataFile.length();
+        load.stop(notesById.size(), snapshotSize);
+        try {
+            history.open(notesById);
+        } catch (IOException e) {
+            System.err.println("Error loading note history: " + e.getMessage());
+        }
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        savedIndexes = readSavedIndexes();
+        if (snapshotNotes != null && (savedIndexes == null || !config.isScanSearch() && !savedIndexes.hasPostings())) {
+            saveIndexesInBackground(snapshotNotes, loadedGeneration);
+        }
+        indexLoadedNotes();
+        if (!config.isLazyBodies() && !config.isScanSearch()) {
+            buildSearchIndex();
+        }
     }
     
     /**
-     * Add a new note
+     * Add a new note and return it
      */
-    public void addNote(String title, String content) {
-        Note note = new Note(title, content);
-        notes.add(note);
-        saveNotes();
+    public Note addNote(String title, String content) {
+        return addNote(title, content, null, null);
     }
     
     /**
-     * Update an existing note
+     * Add a new note with tags and key/value metadata and return it
+     */
+    public Note addNote(String title, String content, Collection<String> tags, Map<String, String> metadata) {
+        NoteMetrics.Sample sample = addTimer.start();
+        Note note = compressed(newNote(title, content, tags, metadata));
+        lock.writeLock().lock();
+        try {
+            while (notesById.putIfAbsent(note.getId(), note) != null) {
+                note = compressed(newNote(title, content, tags, metadata));
+            }
+            index(note);
+            appendToLog(NoteLog.OP_ADD, note);
+        } finally {
+            lock.writeLock().unlock();
+            sample.stop(1, 0);
+        }
+        countChanged();
+        return note;
+    }
+    
+    /**
+     * Add many notes at once, keeping their titles, bodies and timestamps.
+     * A note whose id is already taken gets a fresh one. The batch is
+     * indexed under one write lock and handed to the log as one group.
+     * Returns the notes as stored.
+     */
+    public List<Note> addNotes(Collection<Note> notes) {
+        NoteMetrics.Sample sample = addBatchTimer.start();
+        List<Note> prepared = new ArrayList<>(notes.size());
+        for (Note note : notes) {
+            prepared.add(compressed(note));
+        }
+        List<Note> added = new ArrayList<>(notes.size());
+        lock.writeLock().lock();
+        try {
+            for (Note note : prepared) {
+                while (notesById.putIfAbsent(note.getId(), note) != null) {
+                    note = compressed(new Note(NoteId.format(NoteId.next()), note.getTitle(), note.getContent(),
+                            note.getCreatedAt(), note.getModifiedAt(), note.getTags(), note.getMetadata()));
+                }
+                NoteId.observe(note.getKey());
+                index(note);
+                added.add(note);
+            }
+            log.appendPuts(NoteLog.OP_ADD, added);
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+            sample.stop(notes.size(), 0);
+        }
+        countChanged();
+        return added;
+    }
+    
+    /**
+     * Update an existing note by replacing it with a new version, keeping
+     * its tags and metadata
      */
     public boolean updateNote(String id, String title, String content) {
-        Note note = findNoteById(id);
-        if (note != null) {
-            note.setTitle(title);
-            note.setContent(content);
-            saveNotes();
+        return updateNote(id, title, content, null, null);
+    }
+    
+    /**
+     * Update an existing note by replacing it with a new version. A null
+     * title, content, tags or metadata keeps the note's current one; the
+     * merge happens under the write lock, so concurrent partial updates of
+     * different fields all survive. An update that changes nothing leaves
+     * the note, its modification time and the log alone.
+     */
+    public boolean updateNote(String id, String title, String content,
+            Collection<String> tags, Map<String, String> metadata) {
+        NoteMetrics.Sample sample = updateTimer.start();
+        lock.writeLock().lock();
+        try {
+            Note previous = notesById.get(id);
+            if (previous == null) {
+                return false;
+            }
+            String newTitle = title != null ? title : previous.getTitle();
+            String newContent = content != null ? content : previous.getContent();
+            if (unchanged(previous, newTitle, tags, metadata) && previous.getContent().equals(newContent)) {
+                return true;
+            }
+            Note updated = compressed(new Note(id, newTitle, newContent, previous.getCreatedAt(), LocalDateTime.now(),
+                    tags != null ? tags : previous.getTags(),
+                    metadata != null ? metadata : previous.getMetadata()));
+            notesById.put(id, updated);
+            // The sort key changes, so reposition the note around the edit
+            unindex(previous);
+            index(updated);
+            appendToLog(NoteLog.OP_UPDATE, updated);
+            history.record(previous, updated);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+            sample.stop(1, 0);
+        }
+    }
+    
+    /**
+     * Update a note by applying changed ranges to its body, e.g. from an
+     * editor that knows what was typed. Only the ranges reach the log. The
+     * new body stays a plain string rather than being compressed again,
+     * since the note is open and its body pinned anyway; it is compressed
+     * once more when it is next loaded from a snapshot. The text indexes
+     * catch up on their next search rather than on every save. Null tags
+     * or metadata keep the note's current ones, and edits that change
+     * nothing leave the note and the log alone.
+     *
+     * The edits are made against {@code base}, the version of the note the
+     * editor started from. Returns false and leaves the note alone if it
+     * was deleted or changed by someone else since; notes are replaced, not
+     * modified, so the version stored must be {@code base} itself. Throws
+     * IllegalArgumentException if the edits do not fit the body.
+     */
+    public boolean editNote(Note base, String title, List<NoteEdit> edits,
+            Collection<String> tags, Map<String, String> metadata) {
+        NoteMetrics.Sample sample = editTimer.start();
+        lock.writeLock().lock();
+        try {
+            String id = base.getId();
+            Note previous = notesById.get(id);
+            if (previous != base) {
+                return false;
+            }
+            String body = previous.getContent();
+            if (unchanged(previous, title, tags, metadata) && unchanged(body, edits)) {
+                return true;
+            }
+            Note updated = new Note(id, title, NoteEdit.apply(body, edits), previous.getCreatedAt(), LocalDateTime.now(),
+                    tags != null ? tags : previous.getTags(),
+                    metadata != null ? metadata : previous.getMetadata());
+            notesById.put(id, updated);
+            notesByModified.remove(previous);
+            notesByModified.add(updated);
+            // Slots are reused last-freed first, so the note keeps its slot
+            attributes.remove(previous);
+            attributes.add(updated);
+            if (searchIndex != null) {
+                staleSearch.putIfAbsent(id, previous);
+            }
+            if (rankedIndex != null) {
+                staleRanked.putIfAbsent(id, previous);
+            }
+            log.appendEdit(updated, body, edits);
+            maybeCompact();
+            history.record(previous, updated);
             return true;
+        } finally {
+            lock.writeLock().unlock();
+            sample.stop(1, 0);
         }
-        return false;
     }
     
     /**
      * Delete a note by ID
      */
     public boolean deleteNote(String id) {
-        Note note = findNoteById(id);
-        if (note != null) {
-            notes.remove(note);
-            saveNotes();
-            return true;
+        NoteMetrics.Sample sample = deleteTimer.start();
+        lock.writeLock().lock();
+        try {
+            Note note = notesById.remove(id);
+            if (note == null) {
+                return false;
+            }
+            unindex(note);
+            log.appendDelete(id);
+            history.remove(id);
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+            sample.stop(1, 0);
         }
-        return false;
+        countChanged();
+        return true;
     }
     
     /**
      * Find a note by ID
      */
     public Note findNoteById(String id) {
-        return notes.stream()
-                .filter(note -> note.getId().equals(id))
-                .findFirst()
-                .orElse(null);
+        return notesById.get(id);
     }
     
     /**
-     * Get all notes
+     * Get all notes, newest first
      */
     public List<Note> getAllNotes() {
-        return new ArrayList<>(notes);
+        return getNotesSortedByDate();
     }
     
     /**
-     * Search notes by title or content
+     * Search notes by title or content, newest first. If the calling thread
+     * is interrupted the search stops early with partial results.
      */
     public List<Note> searchNotes(String query) {
         if (query == null || query.trim().isEmpty()) {
             return getAllNotes();
         }
         
-        String lowerQuery = query.toLowerCase();
-        return notes.stream()
-                .filter(note -> 
-                    note.getTitle().toLowerCase().contains(lowerQuery) ||
-                    note.getContent().toLowerCase().contains(lowerQuery))
-                .collect(Collectors.toList());
+        NoteMetrics.Sample sample = searchTimer.start();
+        if (usesIndex(query)) {
+            readLockSearchIndex();
+        } else {
+            lock.readLock().lock();
+        }
+        List<Note> results;
+        try {
+            results = usesIndex(query) ? searchIndex.search(query, notesById.values()) : scan(notesById.values(), query);
+        } finally {
+            lock.readLock().unlock();
+        }
+        results.sort(NEWEST_FIRST);
+        sample.stop(results.size(), 0);
+        return results;
     }
     
     /**
-     * Get notes sorted by creation date (newest first)
+     * The {@code limit} notes most relevant to a query, best first. Words
+     * are matched whole, titles weigh more than bodies, and a word no note
+     * contains also matches words a typo or two away. See
+     * {@link NoteRankedIndex}.
+     */
+    public List<NoteRankedIndex.Hit> searchRanked(String query, int limit) {
+        return searchRanked(new NoteFilter().text(query), limit);
+    }
+    
+    /**
+     * Ranked search for a filter's text among the notes matching its tags,
+     * metadata and time ranges
+     */
+    public List<NoteRankedIndex.Hit> searchRanked(NoteFilter filter, int limit) {
+        if (!filter.hasText()) {
+            return new ArrayList<>();
+        }
+        NoteMetrics.Sample sample = rankedTimer.start();
+        readLockRankedIndex();
+        List<NoteRankedIndex.Hit> hits;
+        try {
+            hits = rankedIndex.search(filter.getText(), limit,
+                    filter.hasAttributes() ? attributes.match(filter) : null);
+        } finally {
+            lock.readLock().unlock();
+        }
+        sample.stop(hits.size(), 0);
+        return hits;
+    }
+    
+    /**
+     * Notes matching every criterion of a filter, newest first. Tags,
+     * metadata and the time range resolve by bitmap intersection; a text
+     * query is then checked on each match when few notes remain, or
+     * answered by the search index and intersected otherwise.
+     */
+    public List<Note> filterNotes(NoteFilter filter) {
+        if (!filter.hasAttributes()) {
+            return searchNotes(filter.getText());
+        }
+        NoteMetrics.Sample sample = filterTimer.start();
+        readLock(filter);
+        List<Note> results;
+        try {
+            results = attributes.notes(matchSlots(filter));
+        } finally {
+            lock.readLock().unlock();
+        }
+        results.sort(NEWEST_FIRST);
+        sample.stop(results.size(), 0);
+        return results;
+    }
+    
+    /**
+     * Number of notes carrying each tag among the notes matching a filter,
+     * by tag name. An empty filter counts tags over all notes.
+     */
+    public Map<String, Integer> getTagCounts(NoteFilter filter) {
+        readLock(filter);
+        try {
+            return attributes.tagCounts(filter.hasAttributes() || filter.hasText()
+                    ? matchSlots(filter) : attributes.all());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Number of notes matching a filter. A filter on a single time range is
+     * answered from the time index in O(log n) without visiting the notes.
+     */
+    public int countNotes(NoteFilter filter) {
+        readLock(filter);
+        try {
+            if (!filter.hasAttributes() && !filter.hasText()) {
+                return notesById.size();
+            }
+            if (filter.getTags().isEmpty() && filter.getMetadata().isEmpty() && !filter.hasText()) {
+                if (!filter.hasCreatedRange()) {
+                    return attributes.count(NoteTimeHistogram.Field.MODIFIED, filter.getModifiedFrom(), filter.getModifiedTo());
+                }
+                if (!filter.hasModifiedRange()) {
+                    return attributes.count(NoteTimeHistogram.Field.CREATED, filter.getCreatedFrom(), filter.getCreatedTo());
+                }
+            }
+            return matchSlots(filter).cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Notes created or modified per day or week, from the bucket holding
+     * {@code from} through the one holding {@code to}. Null ends default to
+     * the earliest and latest note. Each bucket is counted in O(log n).
+     *
+     * @throws IllegalArgumentException if the range spans over 10,000 buckets
+     */
+    public NoteTimeHistogram getHistogram(NoteTimeHistogram.Field field, NoteTimeHistogram.Unit unit,
+            LocalDate from, LocalDate to) {
+        lock.readLock().lock();
+        try {
+            NoteTimeIndex times = attributes.times(field);
+            if (times.size() == 0 && (from == null || to == null)) {
+                return new NoteTimeHistogram(field, unit, Collections.emptyList(), new int[0]);
+            }
+            LocalDate first = unit.bucketStart(from != null ? from : NoteCodec.fromEpochNanos(times.first()).toLocalDate());
+            LocalDate last = to != null ? to : NoteCodec.fromEpochNanos(times.last()).toLocalDate();
+            List<LocalDate> starts = new ArrayList<>();
+            List<Long> bounds = new ArrayList<>();
+            for (LocalDate start = first; !start.isAfter(last); start = unit.next(start)) {
+                if (starts.size() == MAX_HISTOGRAM_BUCKETS) {
+                    throw new IllegalArgumentException("Histogram over " + MAX_HISTOGRAM_BUCKETS + " buckets");
+                }
+                starts.add(start);
+                bounds.add(NoteCodec.toEpochNanos(start.atStartOfDay()));
+            }
+            if (!starts.isEmpty()) {
+                bounds.add(NoteCodec.toEpochNanos(unit.next(starts.get(starts.size() - 1)).atStartOfDay()));
+            }
+            long[] edges = new long[bounds.size()];
+            for (int i = 0; i < edges.length; i++) {
+                edges[i] = bounds.get(i);
+            }
+            return new NoteTimeHistogram(field, unit, starts, times.histogram(edges));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Attribute index slots of the notes matching a filter; the caller holds
+     * the read lock
+     */
+    private NoteBitmap matchSlots(NoteFilter filter) {
+        NoteBitmap slots = attributes.match(filter);
+        if (!filter.hasText() || slots.isEmpty()) {
+            return slots;
+        }
+        String query = filter.getText();
+        NoteBitmap matched = new NoteBitmap();
+        if (slots.cardinality() <= notesById.size() / SELECTIVE_FILTER_RATIO) {
+            slots.forEach(slot -> {
+                if (NoteSearchIndex.matches(attributes.note(slot), query)) {
+                    matched.add(slot);
+                }
+            });
+        } else if (!usesIndex(query)) {
+            for (Note note : scan(attributes.notes(slots), query)) {
+                matched.add(attributes.slotOf(note.getId()));
+            }
+        } else {
+            for (Note note : searchIndex.search(query, notesById.values())) {
+                int slot = attributes.slotOf(note.getId());
+                if (slot >= 0 && slots.contains(slot)) {
+                    matched.add(slot);
+                }
+            }
+        }
+        return matched;
+    }
+    
+    /**
+     * Whether a substring query goes through the trigram index; short
+     * queries and the scan search mode scan the notes instead
+     */
+    private boolean usesIndex(String query) {
+        return !config.isScanSearch() && query.length() >= 3;
+    }
+    
+    /**
+     * Notes whose title or body contains {@code query}, in the order given,
+     * checked in parallel chunks on the pool
+     */
+    private List<Note> scan(Collection<Note> notes, String query) {
+        return NoteParallel.filter(pool, notes.toArray(new Note[0]), SCAN_GRAIN,
+                note -> NoteSearchIndex.matches(note, query));
+    }
+    
+    /**
+     * Get notes sorted by modification date (newest first)
      */
     public List<Note> getNotesSortedByDate() {
-        return notes.stream()
-                .sorted((n1, n2) -> n2.getModifiedAt().compareTo(n1.getModifiedAt()))
-                .collect(Collectors.toList());
+        return getNotesSortedByDate(0, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Get one page of notes sorted by modification date (newest first)
+     */
+    public List<Note> getNotesSortedByDate(int offset, int limit) {
+        NoteMetrics.Sample sample = listTimer.start();
+        List<Note> page;
+        lock.readLock().lock();
+        try {
+            page = notesByModified.page(offset, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+        sample.stop(page.size(), 0);
+        return page;
+    }
+    
+    /**
+     * Get the note at a position in modification-date order
+     */
+    public Note getNoteAt(int index) {
+        lock.readLock().lock();
+        try {
+            return notesByModified.get(index);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Get the position of a note in modification-date order, or -1
+     */
+    public int indexOfNote(String id) {
+        lock.readLock().lock();
+        try {
+            Note note = notesById.get(id);
+            return note == null ? -1 : notesByModified.indexOf(note);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Add a note to the ordered, attribute and search indexes; the caller
+     * holds the write lock
+     */
+    private void index(Note note) {
+        notesByModified.add(note);
+        attributes.add(note);
+        int slot = attributes.slotOf(note.getId());
+        if (searchIndex != null) {
+            searchIndex.add(note, slot);
+        }
+        if (rankedIndex != null) {
+            rankedIndex.add(note, slot);
+        }
+    }
+    
+    /**
+     * Remove a note from every index it was added to by {@link #index}
+     */
+    private void unindex(Note note) {
+        notesByModified.remove(note);
+        Note staleInSearch = staleSearch.remove(note.getId());
+        Note staleInRanked = staleRanked.remove(note.getId());
+        int slot = attributes.slotOf(note.getId());
+        if (searchIndex != null) {
+            searchIndex.remove(staleInSearch != null ? staleInSearch : note, slot);
+        }
+        if (rankedIndex != null) {
+            rankedIndex.remove(staleInRanked != null ? staleInRanked : note, slot);
+        }
+        attributes.remove(note);
+    }
+    
+    /**
+     * Re-index the text of notes changed by {@link #editNote} since the
+     * last search, so a burst of saves to a large note costs one pass. The
+     * caller holds the write lock.
+     */
+    private void refreshTextIndexes() {
+        for (Note indexed : staleSearch.values()) {
+            int slot = attributes.slotOf(indexed.getId());
+            searchIndex.remove(indexed, slot);
+            searchIndex.add(notesById.get(indexed.getId()), slot);
+        }
+        staleSearch.clear();
+        for (Note indexed : staleRanked.values()) {
+            int slot = attributes.slotOf(indexed.getId());
+            rankedIndex.remove(indexed, slot);
+            rankedIndex.add(notesById.get(indexed.getId()), slot);
+        }
+        staleRanked.clear();
+    }
+    
+    /**
+     * Take the read lock for a filter, with the search index ready if its
+     * text query uses it
+     */
+    private void readLock(NoteFilter filter) {
+        if (filter.hasText() && usesIndex(filter.getText())) {
+            readLockSearchIndex();
+        } else {
+            lock.readLock().lock();
+        }
+    }
+    
+    /**
+     * Take the read lock with the search index built and holding the
+     * current text of every note. Building or catching up happens under the
+     * write lock, which is then downgraded, so no edit can slip in between
+     * the refresh and the search.
+     */
+    private void readLockSearchIndex() {
+        lock.readLock().lock();
+        if (searchIndex != null && staleSearch.isEmpty()) {
+            return;
+        }
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        try {
+            if (searchIndex == null) {
+                buildSearchIndex();
+            }
+            refreshTextIndexes();
+            lock.readLock().lock();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Take the read lock with the ranked index built and current, as
+     * {@link #readLockSearchIndex} does for the search index
+     */
+    private void readLockRankedIndex() {
+        lock.readLock().lock();
+        if (rankedIndex != null && staleRanked.isEmpty()) {
+            return;
+        }
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        try {
+            if (rankedIndex == null) {
+                NoteRankedIndex index = new NoteRankedIndex();
+                for (Note note : notesById.values()) {
+                    index.add(note, attributes.slotOf(note.getId()));
+                }
+                // Built from the current notes, so nothing in it is stale
+                staleRanked.clear();
+                rankedIndex = index;
+            }
+            refreshTextIndexes();
+            lock.readLock().lock();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
     
     /**
-     * Save notes to file
+     * Build the search index, starting from the postings saved with the
+     * loaded snapshot when there are any and indexing only the notes
+     * changed since
      */
-    private void saveNotes() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(DATA_FILE))) {
-            oos.writeObject(notes);
+    private void buildSearchIndex() {
+        NoteSearchIndex index = new NoteSearchIndex();
+        if (savedIndexes != null && savedIndexes.hasPostings()) {
+            BitSet current = currentSnapshotNotes();
+            index.setBase(savedIndexes, snapshotNotes.toArray(new Note[0]));
+            for (int i = current.nextClearBit(0); i < snapshotNotes.size(); i = current.nextClearBit(i + 1)) {
+                index.removeBase(i);
+            }
+            for (Note note : notesSinceSnapshot(current)) {
+                index.add(note, attributes.slotOf(note.getId()));
+            }
+        } else {
+            for (Note note : notesById.values()) {
+                index.add(note, attributes.slotOf(note.getId()));
+            }
+        }
+        snapshotNotes = null;
+        savedIndexes = null;
+        staleSearch.clear();
+        searchIndex = index;
+    }
+    
+    /**
+     * Add the notes just loaded to the order and attribute indexes, taking
+     * the order saved with the snapshot for the notes the log left as they
+     * were
+     */
+    private void indexLoadedNotes() {
+        if (savedIndexes != null) {
+            BitSet current = currentSnapshotNotes();
+            List<Note> sorted = new ArrayList<>(current.cardinality());
+            for (int position : savedIndexes.order()) {
+                if (current.get(position)) {
+                    sorted.add(snapshotNotes.get(position));
+                }
+            }
+            notesByModified.addAllSorted(sorted);
+            for (Note note : notesSinceSnapshot(current)) {
+                notesByModified.add(note);
+            }
+        } else {
+            for (Note note : notesById.values()) {
+                notesByModified.add(note);
+            }
+        }
+        for (Note note : notesById.values()) {
+            attributes.add(note);
+        }
+    }
+    
+    /**
+     * Positions in the loaded snapshot whose note is still the current one
+     */
+    private BitSet currentSnapshotNotes() {
+        BitSet current = new BitSet(snapshotNotes.size());
+        for (int i = 0; i < snapshotNotes.size(); i++) {
+            Note note = snapshotNotes.get(i);
+            if (notesById.get(note.getId()) == note) {
+                current.set(i);
+            }
+        }
+        return current;
+    }
+    
+    /**
+     * Current notes that are not a current note of the loaded snapshot
+     */
+    private List<Note> notesSinceSnapshot(BitSet current) {
+        if (current.cardinality() == notesById.size()) {
+            return Collections.emptyList();
+        }
+        Set<Note> unchanged = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = current.nextSetBit(0); i >= 0; i = current.nextSetBit(i + 1)) {
+            unchanged.add(snapshotNotes.get(i));
+        }
+        List<Note> since = new ArrayList<>();
+        for (Note note : notesById.values()) {
+            if (!unchanged.contains(note)) {
+                since.add(note);
+            }
+        }
+        return since;
+    }
+    
+    /**
+     * The indexes saved with the loaded snapshot, or null if there are
+     * none for it or they fail their checksum
+     */
+    private NoteIndexFile readSavedIndexes() {
+        if (snapshotNotes == null) {
+            return null;
+        }
+        try {
+            return NoteIndexFile.read(indexFile, loadedGeneration, snapshotNotes.size());
         } catch (IOException e) {
-            System.err.println("Error saving notes: " + e.getMessage());
+            System.err.println("Error loading note indexes: " + e.getMessage());
+            return null;
         }
     }
     
     /**
-     * Load notes from file
+     * Save the derived indexes of a snapshot, unless a newer snapshot has
+     * replaced it since
+     */
+    private void saveIndexes(List<Note> snapshot, long generation) {
+        synchronized (indexFileLock) {
+            if (generation == 0 || generation != snapshotGeneration) {
+                return;
+            }
+            try {
+                NoteIndexFile.write(indexFile, generation, snapshot, NEWEST_FIRST, !config.isScanSearch());
+            } catch (IOException e) {
+                System.err.println("Error saving note indexes: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void saveIndexesInBackground(List<Note> snapshot, long generation) {
+        Thread saver = new Thread(() -> saveIndexes(snapshot, generation), "note-index-save");
+        saver.setDaemon(true);
+        saver.start();
+    }
+    
+    /**
+     * Queue a note mutation for the write-ahead log; the disk write happens
+     * on the log's writer thread
+     */
+    private void appendToLog(byte op, Note note) {
+        log.appendPut(op, note);
+        maybeCompact();
+    }
+    
+    /**
+     * Completes once every change made so far is durable on disk, or
+     * exceptionally if writing failed
+     */
+    public CompletableFuture<Void> flush() {
+        return log.flush();
+    }
+    
+    /**
+     * Fold the log into a fresh snapshot once it outgrows the snapshot. The
+     * copy is taken now; the log rotates after the changes queued so far are
+     * written, and the snapshot is saved in the background while new changes
+     * go to the fresh log. While a failed compaction's segment is still
+     * pending, its snapshot is retried instead and the log is not rotated.
+     */
+    private void maybeCompact() {
+        long logSize = log.size();
+        if (logSize < COMPACT_MIN_LOG_BYTES || logSize < snapshotSize
+                || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+        if (log.hasPendingSegment()) {
+            List<Note> retry = unsavedSnapshot;
+            if (retry == null) {
+                // Left by a failed fold at startup; the next launch folds it
+                compacting.set(false);
+                return;
+            }
+            log.retryCompaction(() -> compact(retry));
+            return;
+        }
+        List<Note> snapshot = copyNotes();
+        log.rotate(() -> compact(snapshot), () -> compacting.set(false));
+    }
+    
+    /**
+     * Save the snapshot the pending segment ends at and drop the segment.
+     * On failure the snapshot is kept for the next attempt.
+     */
+    private void compact(List<Note> snapshot) {
+        try {
+            saveNotes(snapshot);
+            log.discardPending();
+            unsavedSnapshot = null;
+        } catch (IOException e) {
+            System.err.println("Error compacting notes: " + e.getMessage());
+            unsavedSnapshot = snapshot;
+        } finally {
+            compacting.set(false);
+        }
+    }
+    
+    /**
+     * Whether a title and attributes, null ones meaning kept, match a note's
+     */
+    private static boolean unchanged(Note note, String title, Collection<String> tags, Map<String, String> metadata) {
+        return note.getTitle().equals(title)
+                && (tags == null || Note.normalizeTags(tags).equals(note.getTags()))
+                && (metadata == null || Note.normalizeMetadata(metadata).equals(note.getMetadata()));
+    }
+    
+    /**
+     * Whether edits leave a body as it is, e.g. a character deleted and
+     * typed again
+     */
+    private static boolean unchanged(String base, List<NoteEdit> edits) {
+        for (NoteEdit edit : edits) {
+            if (edit.getRemoved() != edit.getText().length()
+                    || !base.regionMatches(edit.getOffset(), edit.getText(), 0, edit.getRemoved())) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static Note newNote(String title, String content, Collection<String> tags, Map<String, String> metadata) {
+        Note note = new Note(title, content);
+        note.setAttributes(tags, metadata);
+        return note;
+    }
+    
+    private Note compressed(Note note) {
+        return compression != null ? compression.compress(note) : note;
+    }
+    
+    private List<Note> copyNotes() {
+        List<Note> copy = new ArrayList<>(notesById.size());
+        for (Note note : notesById.values()) {
+            copy.add(note.copy());
+        }
+        return copy;
+    }
+    
+    /**
+     * Save a snapshot of notes to file, replacing the old one atomically
+     */
+    private void saveNotes(List<Note> snapshot) throws IOException {
+        NoteMetrics.Sample sample = saveTimer.start();
+        File tmp = new File(dataFile.getPath() + ".tmp");
+        long generation = NoteCodec.newGeneration();
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            NoteCodec.writeSnapshot(new BufferedOutputStream(fos, 1 << 16), snapshot, compression, generation);
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), dataFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        snapshotGeneration = generation;
+        snapshotSize = dataFile.length();
+        sample.stop(snapshot.size(), snapshotSize);
+        saveBytes.record(snapshotSize);
+        saveIndexes(snapshot, generation);
+    }
+    
+    /**
+     * Load the snapshot from file and replay the log on top of it. A data
+     * file in the old serialized format is kept as a backup and rewritten
+     * in the binary format.
      */
-    @SuppressWarnings("unchecked")
     private void loadNotes() {
-        File file = new File(DATA_FILE);
+        Map<String, Note> loaded = new LinkedHashMap<>();
+        File file = dataFile;
+        boolean migrate = false;
         if (file.exists()) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(DATA_FILE))) {
-                notes = (List<Note>) ois.readObject();
+            try {
+                migrate = NoteCodec.isLegacyFile(file);
+                List<Note> notes = migrate ? readLegacyNotes(file)
+                        : NoteCodec.readSnapshot(file, config.isLazyBodies(), compression, bodyCache, pool);
+                for (Note note : notes) {
+                    Note unique = withUniqueId(note, loaded);
+                    loaded.put(unique.getId(), unique);
+                }
+                if (!migrate) {
+                    snapshotGeneration = NoteCodec.readGeneration(file);
+                    loadedGeneration = snapshotGeneration;
+                    snapshotNotes = notes;
+                }
+                if (migrate) {
+                    Files.copy(file.toPath(), Paths.get(dataFile.getPath() + ".bak"), StandardCopyOption.REPLACE_EXISTING);
+                }
             } catch (IOException | ClassNotFoundException e) {
                 System.err.println("Error loading notes: " + e.getMessage());
-                notes = new ArrayList<>();
+                migrate = false;
             }
         }
+        
+        try {
+            log.replay(new NoteLog.Replayer() {
+                public void put(Note note) { loaded.put(note.getId(), note); }
+                public void delete(String id) { loaded.remove(id); }
+                public void clear() { loaded.clear(); }
+                public void edit(Note header, int baseLength, Integer baseHash, List<NoteEdit> edits) {
+                    Note previous = loaded.get(header.getId());
+                    String body = previous != null ? previous.getContent() : null;
+                    // A mismatch is also what a segment already in the snapshot
+                    // replays to, e.g. after a crash between the two
+                    if (body == null || body.length() != baseLength
+                            || baseHash != null && body.hashCode() != baseHash) {
+                        System.err.println("Skipping note edit: " + header.getId() + " does not match its base");
+                        return;
+                    }
+                    Note note = new Note(header.getId(), header.getTitle(), NoteEdit.apply(body, edits),
+                            previous.getCreatedAt(), header.getModifiedAt());
+                    note.copyAttributes(header);
+                    loaded.put(note.getId(), note);
+                }
+            });
+            // Notes from the log or a legacy file arrive with plain bodies
+            loaded.replaceAll((id, note) -> compressed(note));
+            notesById.putAll(loaded);
+            if (migrate || log.hasPendingSegment()) {
+                // Fold everything into a fresh snapshot after a format
+                // migration or an interrupted compaction
+                saveNotes(copyNotes());
+                log.discardPending();
+                log.reset();
+                log.open();
+            } else {
+                log.open();
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading notes: " + e.getMessage());
+            notesById.putAll(loaded);
+        }
+        for (Note note : notesById.values()) {
+            NoteId.observe(note.getKey());
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static List<Note> readLegacyNotes(File file) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return (List<Note>) ois.readObject();
+        }
+    }
+    
+    /**
+     * Older files can hold notes whose ids collided when they were created;
+     * give every duplicate after the first a distinct id so none is lost
+     */
+    private static Note withUniqueId(Note note, Map<String, Note> loaded) {
+        if (!loaded.containsKey(note.getId())) {
+            return note;
+        }
+        int suffix = 1;
+        while (loaded.containsKey(note.getId() + "_" + suffix)) {
+            suffix++;
+        }
+        return new Note(note.getId() + "_" + suffix, note.getTitle(), note.getContent(),
+                note.getCreatedAt(), note.getModifiedAt(), note.getTags(), note.getMetadata());
+    }
+    
+    /**
+     * Keep a note's body decoded in memory, e.g. while it is open in the
+     * editor, until {@link #unpinNote} is called for it
+     */
+    public void pinNote(String id) {
+        Note note = notesById.get(id);
+        if (note == null || note.getLazyBody() == null) {
+            return;
+        }
+        bodyCache.pin(note.getLazyBody());
+        Note.LazyBody previous = pinnedBodies.put(id, note.getLazyBody());
+        if (previous != null) {
+            bodyCache.unpin(previous);
+        }
+    }
+    
+    public void unpinNote(String id) {
+        Note.LazyBody body = pinnedBodies.remove(id);
+        if (body != null) {
+            bodyCache.unpin(body);
+        }
+    }
+    
+    /**
+     * Timings of note operations, log commits and snapshot saves since
+     * this manager was created
+     */
+    public NoteMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Hit, miss and eviction counts of the decoded body cache
+     */
+    public NoteBodyCache.Stats getBodyCacheStats() {
+        return bodyCache.stats();
+    }
+    
+    /**
+     * Revisions of a note, oldest first, ending with the current version.
+     * Empty for a note that has never been edited.
+     */
+    public List<NoteHistory.Revision> listRevisions(String id) throws IOException {
+        return history.list(id);
+    }
+    
+    /**
+     * Rebuild a revision of a note as numbered by {@link #listRevisions},
+     * or null if there is no such revision
+     */
+    public Note getRevision(String id, int revision) throws IOException {
+        return history.get(id, revision);
     }
     
     /**
      * Get total number of notes
      */
     public int getNotesCount() {
-        return notes.size();
+        return notesById.size();
     }
     
     /**
      * Clear all notes
      */
     public void clearAllNotes() {
-        notes.clear();
-        saveNotes();
+        lock.writeLock().lock();
+        try {
+            notesById.clear();
+            notesByModified.clear();
+            attributes.clear();
+            if (searchIndex != null) {
+                searchIndex.clear();
+            }
+            if (rankedIndex != null) {
+                rankedIndex.clear();
+            }
+            staleSearch.clear();
+            staleRanked.clear();
+            snapshotNotes = null;
+            savedIndexes = null;
+            log.appendClear();
+            history.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        countChanged();
+    }
+    
+    /**
+     * Run {@code listener} after notes are added, deleted or cleared, on
+     * the thread that changed them, e.g. to resize a list showing them
+     */
+    public void addCountListener(Runnable listener) {
+        countListeners.add(listener);
+    }
+    
+    private void countChanged() {
+        for (Runnable listener : countListeners) {
+            listener.run();
+        }
+    }
+    
+    /**
+     * Write out pending changes and release the log. Also runs from a
+     * shutdown hook, so changes survive an exit that skips the window close.
+     */
+    public void close() {
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down
+        }
+        closeLog();
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+    
+    private void closeLog() {
+        try {
+            log.close();
+            history.close();
+        } catch (IOException e) {
+            System.err.println("Error closing notes: " + e.getMessage());
+        }
     }
 }
\ No newline at end of file
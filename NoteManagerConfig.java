@@ -0,0 +1,94 @@
+import java.io.File;
+
+/**
+ * Storage settings for a {@link NoteManager}.
+ *
+ * Defaults come from system properties so the app can be tuned from the
+ * command line, e.g. {@code java -Dnotes.lazyBodies=true NoteTakingApp}.
+ */
+public class NoteManagerConfig {
+    private File dataDirectory = new File(".");
+    private boolean lazyBodies;
+    private boolean compressBodies;
+    private int compressionThreshold = 4096;
+    private long bodyCacheBytes = 32L * 1024 * 1024;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private boolean scanSearch;
+
+    public static NoteManagerConfig fromSystemProperties() {
+        return new NoteManagerConfig()
+                .dataDirectory(new File(System.getProperty("notes.dir", ".")))
+                .lazyBodies(Boolean.getBoolean("notes.lazyBodies"))
+                .compressBodies(Boolean.getBoolean("notes.compressBodies"))
+                .compressionThreshold(Integer.getInteger("notes.compressionThreshold", 4096))
+                .bodyCacheBytes(Long.getLong("notes.bodyCacheMB", 32) * 1024 * 1024)
+                .parallelism(Integer.getInteger("notes.parallelism", Runtime.getRuntime().availableProcessors()))
+                .scanSearch(Boolean.getBoolean("notes.scanSearch"));
+    }
+
+    /**
+     * Directory holding the snapshot and log files
+     */
+    public NoteManagerConfig dataDirectory(File dataDirectory) {
+        this.dataDirectory = dataDirectory;
+        return this;
+    }
+
+    /**
+     * Keep note bodies memory-mapped and decode them only when read
+     */
+    public NoteManagerConfig lazyBodies(boolean lazyBodies) {
+        this.lazyBodies = lazyBodies;
+        return this;
+    }
+
+    /**
+     * Keep large note bodies Deflate-compressed in memory and in snapshots
+     */
+    public NoteManagerConfig compressBodies(boolean compressBodies) {
+        this.compressBodies = compressBodies;
+        return this;
+    }
+
+    /**
+     * Bodies shorter than this many characters are never compressed
+     */
+    public NoteManagerConfig compressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
+    /**
+     * Heap budget for decoded copies of lazy or compressed bodies
+     */
+    public NoteManagerConfig bodyCacheBytes(long bodyCacheBytes) {
+        this.bodyCacheBytes = bodyCacheBytes;
+        return this;
+    }
+
+    /**
+     * Threads used to load snapshots and scan notes; 1 does everything on
+     * the calling thread
+     */
+    public NoteManagerConfig parallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * Answer substring searches by scanning every note in parallel instead
+     * of building and keeping a trigram index
+     */
+    public NoteManagerConfig scanSearch(boolean scanSearch) {
+        this.scanSearch = scanSearch;
+        return this;
+    }
+
+    public File getDataDirectory() { return dataDirectory; }
+    public boolean isLazyBodies() { return lazyBodies; }
+    public boolean isCompressBodies() { return compressBodies; }
+    public int getCompressionThreshold() { return compressionThreshold; }
+    public long getBodyCacheBytes() { return bodyCacheBytes; }
+    public int getParallelism() { return parallelism; }
+    public boolean isScanSearch() { return scanSearch; }
+}
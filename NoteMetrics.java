@@ -0,0 +1,257 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process timers, value distributions and counters.
+ *
+ * Values go into log-linear buckets: four per power of two, so a
+ * percentile read back is within 25% of the recorded value while a
+ * histogram stays a fixed 252 slots. Recording is lock-free and safe from
+ * any thread. Timed operations also emit a {@link NoteOperationEvent} for
+ * Flight Recorder, which costs next to nothing while no recording runs.
+ */
+public final class NoteMetrics {
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = 252;
+
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+
+    /**
+     * Distribution of recorded values
+     */
+    public static class Histogram {
+        private final String name;
+        private final String unit;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(String name, String unit) {
+            this.name = name;
+            this.unit = unit;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        public Summary summary() {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            long maximum = max.get();
+            return new Summary(name, unit, total, total == 0 ? 0 : sum.sum() / total,
+                    percentile(counts, total, 0.50, maximum), percentile(counts, total, 0.99, maximum), maximum);
+        }
+    }
+
+    /**
+     * Histogram of nanosecond durations
+     */
+    public static final class Timer extends Histogram {
+        Timer(String name) {
+            super(name, "ns");
+        }
+
+        /**
+         * Start timing one operation
+         */
+        public Sample start() {
+            return new Sample(this);
+        }
+    }
+
+    /**
+     * One operation being timed; {@link #stop} records it
+     */
+    public static final class Sample {
+        private final Timer timer;
+        private final long start = System.nanoTime();
+        private final NoteOperationEvent event = new NoteOperationEvent();
+
+        Sample(Timer timer) {
+            this.timer = timer;
+            event.begin();
+        }
+
+        public void stop() {
+            stop(0, 0);
+        }
+
+        /**
+         * Record the operation along with how many notes and bytes it handled
+         */
+        public void stop(int notes, long bytes) {
+            timer.record(System.nanoTime() - start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = timer.getName();
+                event.notes = notes;
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Counts and percentiles of one histogram at one point in time
+     */
+    public static final class Summary {
+        private final String name;
+        private final String unit;
+        private final long count;
+        private final long mean;
+        private final long p50;
+        private final long p99;
+        private final long max;
+
+        Summary(String name, String unit, long count, long mean, long p50, long p99, long max) {
+            this.name = name;
+            this.unit = unit;
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public String getName() { return name; }
+        public String getUnit() { return unit; }
+        public long getCount() { return count; }
+        public long getMean() { return mean; }
+        public long getP50() { return p50; }
+        public long getP99() { return p99; }
+        public long getMax() { return max; }
+
+        @Override
+        public String toString() {
+            return String.format("%-20s %9d %10s %10s %10s %10s", name, count,
+                    format(mean, unit), format(p50, unit), format(p99, unit), format(max, unit));
+        }
+    }
+
+    public Timer timer(String name) {
+        return (Timer) histograms.computeIfAbsent(name, Timer::new);
+    }
+
+    /**
+     * Histogram of arbitrary values, such as bytes per write
+     */
+    public Histogram distribution(String name, String unit) {
+        return histograms.computeIfAbsent(name, n -> new Histogram(n, unit));
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Summaries of every histogram, sorted by name
+     */
+    public List<Summary> snapshot() {
+        List<Summary> summaries = new ArrayList<>(histograms.size());
+        for (Histogram histogram : histograms.values()) {
+            summaries.add(histogram.summary());
+        }
+        return summaries;
+    }
+
+    /**
+     * Counter values, sorted by name
+     */
+    public Map<String, Long> counters() {
+        Map<String, Long> values = new ConcurrentSkipListMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().sum());
+        }
+        return values;
+    }
+
+    /**
+     * Plain-text table of the histograms that have values, then all counters
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(String.format("%-20s %9s %10s %10s %10s %10s%n",
+                "metric", "count", "mean", "p50", "p99", "max"));
+        for (Summary summary : snapshot()) {
+            if (summary.getCount() > 0) {
+                report.append(summary).append('\n');
+            }
+        }
+        for (Map.Entry<String, Long> counter : counters().entrySet()) {
+            report.append(String.format("%-20s %9d%n", counter.getKey(), counter.getValue()));
+        }
+        return report.toString();
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (msb - 2)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS * (msb - 1) + sub;
+    }
+
+    /**
+     * Largest value that falls into a bucket
+     */
+    static long bucketLimit(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int msb = bucket / SUB_BUCKETS + 1;
+        long width = 1L << (msb - 2);
+        return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width - 1;
+    }
+
+    private static long percentile(long[] counts, long total, double fraction, long max) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketLimit(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static String format(long value, String unit) {
+        if (unit.equals("ns")) {
+            if (value >= 1_000_000_000L) {
+                return String.format("%.2f s", value / 1e9);
+            }
+            if (value >= 1_000_000L) {
+                return String.format("%.2f ms", value / 1e6);
+            }
+            return String.format("%.1f us", value / 1e3);
+        }
+        if (unit.equals("bytes")) {
+            return value >= 1 << 20 ? String.format("%.1f MB", value / 1048576.0)
+                    : value >= 1 << 10 ? String.format("%.1f KB", value / 1024.0) : value + " B";
+        }
+        return value + " " + unit;
+    }
+}
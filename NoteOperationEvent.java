@@ -0,0 +1,29 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one timed NoteManager or log operation, e.g.
+ * {@code java -XX:StartFlightRecording=filename=notes.jfr NoteTakingApp}
+ */
+@Name("notes.Operation")
+@Label("Note Operation")
+@Category("Notes")
+@Description("A timed note store operation")
+@StackTrace(false)
+class NoteOperationEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Notes")
+    @Description("Notes added, changed or returned")
+    int notes;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
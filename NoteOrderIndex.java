@@ -0,0 +1,268 @@
+import java.util.*;
+
+/**
+ * Sorted view of notes kept live under edits.
+ *
+ * A treap whose nodes carry subtree sizes, so inserting or removing one
+ * note, finding the note at a position and finding a note's position are
+ * all O(log n). Pages are read by walking in order from the first row
+ * without touching the rest of the collection.
+ */
+public class NoteOrderIndex implements Iterable<Note> {
+    private static final class Node {
+        final Note note;
+        final int priority;
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(Note note, int priority) {
+            this.note = note;
+            this.priority = priority;
+        }
+    }
+
+    private final Comparator<Note> order;
+    private final Random random = new Random();
+    private Node root;
+
+    public NoteOrderIndex(Comparator<Note> order) {
+        this.order = order;
+    }
+
+    public void add(Note note) {
+        root = insert(root, new Node(note, random.nextInt()));
+    }
+
+    /**
+     * Fill an empty index from notes already in sort order in O(n), e.g.
+     * an order saved with a snapshot. Falls back to adding one by one if
+     * the index is not empty or the notes are out of order.
+     */
+    public void addAllSorted(List<Note> sorted) {
+        boolean inOrder = root == null;
+        for (int i = 1; i < sorted.size() && inOrder; i++) {
+            inOrder = order.compare(sorted.get(i - 1), sorted.get(i)) <= 0;
+        }
+        if (!inOrder) {
+            for (Note note : sorted) {
+                add(note);
+            }
+            return;
+        }
+        // Build the treap as a Cartesian tree: the stack holds the right spine
+        Node[] spine = new Node[sorted.size()];
+        int depth = 0;
+        for (Note note : sorted) {
+            Node node = new Node(note, random.nextInt());
+            Node last = null;
+            while (depth > 0 && spine[depth - 1].priority < node.priority) {
+                last = spine[--depth];
+                update(last);
+            }
+            node.left = last;
+            if (depth > 0) {
+                spine[depth - 1].right = node;
+            }
+            spine[depth++] = node;
+        }
+        for (int i = depth - 1; i >= 0; i--) {
+            update(spine[i]);
+        }
+        root = depth > 0 ? spine[0] : null;
+    }
+
+    /**
+     * Remove a note; its sort key must not have changed since it was added
+     */
+    public boolean remove(Note note) {
+        int before = size();
+        root = delete(root, note);
+        return size() < before;
+    }
+
+    public void clear() {
+        root = null;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * Note at a position in sort order
+     */
+    public Note get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.note;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Position of a note in sort order, or -1 if it is not indexed
+     */
+    public int indexOf(Note note) {
+        Node node = root;
+        int rank = 0;
+        while (node != null) {
+            int cmp = order.compare(note, node.note);
+            if (cmp < 0) {
+                node = node.left;
+            } else if (cmp > 0) {
+                rank += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return rank + size(node.left);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Up to {@code limit} notes starting at position {@code offset}
+     */
+    public List<Note> page(int offset, int limit) {
+        List<Note> page = new ArrayList<>(Math.max(0, Math.min(limit, size() - offset)));
+        Iterator<Note> it = iteratorFrom(offset);
+        while (page.size() < limit && it.hasNext()) {
+            page.add(it.next());
+        }
+        return page;
+    }
+
+    @Override
+    public Iterator<Note> iterator() {
+        return iteratorFrom(0);
+    }
+
+    /**
+     * In-order iterator positioned at {@code offset}; the stack holds the
+     * ancestors still to be visited, so seeking costs O(log n)
+     */
+    public Iterator<Note> iteratorFrom(int offset) {
+        Deque<Node> stack = new ArrayDeque<>();
+        Node node = root;
+        int k = offset;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (k < leftSize) {
+                stack.push(node);
+                node = node.left;
+            } else if (k == leftSize) {
+                stack.push(node);
+                break;
+            } else {
+                k -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return new Iterator<Note>() {
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public Note next() {
+                if (stack.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node current = stack.pop();
+                for (Node n = current.right; n != null; n = n.left) {
+                    stack.push(n);
+                }
+                return current.note;
+            }
+        };
+    }
+
+    private Node insert(Node node, Node added) {
+        if (node == null) {
+            return added;
+        }
+        if (order.compare(added.note, node.note) < 0) {
+            node.left = insert(node.left, added);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, added);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        update(node);
+        return node;
+    }
+
+    private Node delete(Node node, Note note) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = order.compare(note, node.note);
+        if (cmp < 0) {
+            node.left = delete(node.left, note);
+        } else if (cmp > 0) {
+            node.right = delete(node.right, note);
+        } else {
+            return merge(node.left, node.right);
+        }
+        update(node);
+        return node;
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        update(b);
+        return b;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node pivot = node.left;
+        node.left = pivot.right;
+        pivot.right = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node pivot = node.right;
+        node.right = pivot.left;
+        pivot.left = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private static void update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+/**
+ * Fork/join helpers that split work over notes into chunks.
+ *
+ * A task halves its range until a chunk is at most {@code grain} items and
+ * runs the chunks on a pool, so idle workers steal the halves still queued
+ * and an uneven mix of short and long notes balances itself. Without a pool
+ * everything runs on the calling thread.
+ */
+final class NoteParallel {
+    /** Notes a scan visits between checks for cancellation */
+    private static final int CANCEL_CHECK_MASK = 1023;
+
+    /**
+     * Work on the items {@code from} (inclusive) to {@code to} (exclusive)
+     */
+    interface RangeTask {
+        void run(int from, int to) throws IOException;
+    }
+
+    private NoteParallel() {
+    }
+
+    /**
+     * Run a task over {@code [0, size)} in chunks of at most {@code grain}
+     */
+    static void forRanges(ForkJoinPool pool, int size, int grain, RangeTask task) throws IOException {
+        if (pool == null || size <= grain) {
+            task.run(0, size);
+            return;
+        }
+        try {
+            pool.invoke(new Ranges(0, size, grain, task));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Notes matching a predicate, in their original order. If the calling
+     * thread is interrupted the scan stops early with partial results.
+     */
+    static List<Note> filter(ForkJoinPool pool, Note[] notes, int grain, Predicate<Note> predicate) {
+        Filter task = new Filter(notes, 0, notes.length, grain, predicate, Thread.currentThread());
+        return pool == null || notes.length <= grain ? task.compute() : pool.invoke(task);
+    }
+
+    private static final class Ranges extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final RangeTask task;
+
+        Ranges(int from, int to, int grain, RangeTask task) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                try {
+                    task.run(from, to);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Ranges(from, middle, grain, task), new Ranges(middle, to, grain, task));
+        }
+    }
+
+    private static final class Filter extends RecursiveTask<List<Note>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Note[] notes;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final Predicate<Note> predicate;
+        // Workers watch the thread that asked, which is the one interrupted
+        private final Thread caller;
+
+        Filter(Note[] notes, int from, int to, int grain, Predicate<Note> predicate, Thread caller) {
+            this.notes = notes;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.predicate = predicate;
+            this.caller = caller;
+        }
+
+        @Override
+        protected List<Note> compute() {
+            if (to - from > grain) {
+                int middle = (from + to) >>> 1;
+                Filter right = new Filter(notes, middle, to, grain, predicate, caller);
+                right.fork();
+                List<Note> results = new Filter(notes, from, middle, grain, predicate, caller).compute();
+                results.addAll(right.join());
+                return results;
+            }
+            List<Note> results = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                if (((i - from) & CANCEL_CHECK_MASK) == CANCEL_CHECK_MASK && caller.isInterrupted()) {
+                    break;
+                }
+                if (predicate.test(notes[i])) {
+                    results.add(notes[i]);
+                }
+            }
+            return results;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Document content held as a piece table over the note body.
+ *
+ * The body as loaded is never copied: the text is a list of pieces, each a
+ * range of either that original string or an append-only buffer of typed
+ * text. An insert appends to the buffer and splits at most one piece, a
+ * removal trims or drops pieces, and typing at one place keeps extending
+ * the same piece. The number of pieces grows with the number of edits
+ * since the last save, not with the size of the body, and because the
+ * original only appears in order the pieces also spell out exactly which
+ * ranges changed ({@link #edits()}).
+ *
+ * Like every Swing content the text ends in an implied newline, kept as the
+ * last piece. Positions follow Swing's StringContent: a position at an
+ * insertion point moves right unless it is at offset 0.
+ *
+ * As in GapContent, positions are kept sorted and stored relative to a gap
+ * that follows the last edit: a position after the gap is stored shifted
+ * by the gap's length, so an edit changes only the gap and the positions
+ * it passes over or removes rather than every position after it. A
+ * document holds a couple of positions per line, so this keeps a
+ * keystroke from costing time in proportion to the lines in the note.
+ */
+final class NotePieceTable implements AbstractDocument.Content {
+    private static final String END = "\n";
+
+    /**
+     * A range of the original body or of the added text
+     */
+    private static final class Piece {
+        final boolean added;
+        int start;
+        int length;
+
+        Piece(boolean added, int start, int length) {
+            this.added = added;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Stored offset of a position, held weakly so Swing can drop positions
+     * it no longer uses
+     */
+    private static final class Slot extends WeakReference<Mark> {
+        int index;
+
+        Slot(Mark mark, int index) {
+            super(mark);
+            this.index = index;
+        }
+    }
+
+    private final class Mark implements Position {
+        final Slot slot;
+
+        Mark(int index) {
+            this.slot = new Slot(this, index);
+        }
+
+        @Override
+        public int getOffset() {
+            return slot.index < gapStart ? slot.index : slot.index - gapLength;
+        }
+    }
+
+    private String original;
+    // Characters of the original body appended so far, see appendOriginal
+    private int loaded;
+    private StringBuilder added = new StringBuilder(END);
+    private final List<Piece> pieces = new ArrayList<>();
+    // Ordered by stored offset, which is also offset order
+    private final List<Slot> marks = new ArrayList<>();
+    // Marks held before collected ones are next dropped
+    private int pruneAt = 1024;
+    // Marks stored at gapStart or later are gapLength past their offset
+    private int gapStart;
+    private int gapLength;
+    private int length = END.length();
+
+    /**
+     * Content over a body whose first {@code loaded} characters are present
+     */
+    NotePieceTable(String original, int loaded) {
+        reset(original, loaded);
+    }
+
+    /**
+     * Start over from a new original, e.g. the body just saved, which must
+     * spell the current text when fully loaded
+     */
+    void reset(String original, int loaded) {
+        this.original = original;
+        this.loaded = loaded;
+        added = new StringBuilder(END);
+        pieces.clear();
+        if (loaded > 0) {
+            pieces.add(new Piece(false, 0, loaded));
+        }
+        pieces.add(new Piece(true, 0, END.length()));
+        length = loaded + END.length();
+    }
+
+    String original() {
+        return original;
+    }
+
+    /**
+     * Characters of the original body not yet appended
+     */
+    int unloaded() {
+        return original.length() - loaded;
+    }
+
+    int pieceCount() {
+        return pieces.size();
+    }
+
+    /**
+     * Append the next {@code count} characters of the original body at the
+     * end of the text, without copying them
+     */
+    void appendOriginal(int count) {
+        int where = length - END.length();
+        Piece last = pieces.size() > 1 ? pieces.get(pieces.size() - 2) : null;
+        if (last != null && !last.added && last.start + last.length == loaded) {
+            last.length += count;
+        } else {
+            pieces.add(pieces.size() - 1, new Piece(false, loaded, count));
+        }
+        loaded += count;
+        length += count;
+        updateMarksForInsert(where, count);
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length) {
+            throw new BadLocationException("Invalid position", offset);
+        }
+        if (marks.size() >= pruneAt) {
+            marks.removeIf(slot -> slot.get() == null);
+            pruneAt = Math.max(1024, marks.size() * 2);
+        }
+        int index = offset < gapStart ? offset : offset + gapLength;
+        Mark mark = new Mark(index);
+        marks.add(firstMark(index), mark.slot);
+        return mark;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where >= length) {
+            throw new BadLocationException("Invalid insert", where);
+        }
+        if (str.isEmpty()) {
+            return null;
+        }
+        int start = added.length();
+        added.append(str);
+        int index = 0;
+        int pieceStart = 0;
+        while (pieceStart + pieces.get(index).length <= where) {
+            pieceStart += pieces.get(index).length;
+            index++;
+        }
+        if (where == pieceStart) {
+            Piece previous = index > 0 ? pieces.get(index - 1) : null;
+            if (previous != null && previous.added && previous.start + previous.length == start) {
+                previous.length += str.length();
+            } else {
+                pieces.add(index, new Piece(true, start, str.length()));
+            }
+        } else {
+            Piece piece = pieces.get(index);
+            int head = where - pieceStart;
+            Piece tail = new Piece(piece.added, piece.start + head, piece.length - head);
+            piece.length = head;
+            pieces.add(index + 1, new Piece(true, start, str.length()));
+            pieces.add(index + 2, tail);
+        }
+        length += str.length();
+        updateMarksForInsert(where, str.length());
+        return null;
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems >= length) {
+            throw new BadLocationException("Invalid remove", where + nitems);
+        }
+        int end = where + nitems;
+        int index = 0;
+        int pieceStart = 0;
+        while (index < pieces.size() && pieceStart < end) {
+            Piece piece = pieces.get(index);
+            int pieceEnd = pieceStart + piece.length;
+            if (pieceEnd <= where) {
+                pieceStart = pieceEnd;
+                index++;
+                continue;
+            }
+            int cutFrom = Math.max(where, pieceStart) - pieceStart;
+            int cutTo = Math.min(end, pieceEnd) - pieceStart;
+            if (cutFrom == 0 && cutTo == piece.length) {
+                pieces.remove(index);
+            } else if (cutFrom == 0) {
+                piece.start += cutTo;
+                piece.length -= cutTo;
+                index++;
+            } else if (cutTo == piece.length) {
+                piece.length = cutFrom;
+                index++;
+            } else {
+                pieces.add(index + 1, new Piece(piece.added, piece.start + cutTo, piece.length - cutTo));
+                piece.length = cutFrom;
+                index += 2;
+            }
+            pieceStart = pieceEnd;
+        }
+        length -= nitems;
+        updateMarksForRemove(where, nitems);
+        return null;
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        Segment segment = new Segment();
+        getChars(where, len, segment);
+        return new String(segment.array, segment.offset, segment.count);
+    }
+
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length) {
+            throw new BadLocationException("Invalid range", where + len);
+        }
+        char[] chars = new char[len];
+        int index = 0;
+        int pieceStart = 0;
+        int copied = 0;
+        while (copied < len) {
+            Piece piece = pieces.get(index);
+            int pieceEnd = pieceStart + piece.length;
+            if (pieceEnd > where + copied) {
+                int from = where + copied - pieceStart;
+                int count = Math.min(piece.length - from, len - copied);
+                if (piece.added) {
+                    added.getChars(piece.start + from, piece.start + from + count, chars, copied);
+                } else {
+                    original.getChars(piece.start + from, piece.start + from + count, chars, copied);
+                }
+                copied += count;
+            }
+            pieceStart = pieceEnd;
+            index++;
+        }
+        txt.array = chars;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    /**
+     * Whether the loaded text may differ from the original: false only while
+     * it is the loaded prefix, untouched. Text typed and then deleted again
+     * can leave it true; {@link #edits()} is exact.
+     */
+    boolean isModified() {
+        int expected = 0;
+        // The last piece is the implied newline
+        for (int i = 0; i < pieces.size() - 1; i++) {
+            Piece piece = pieces.get(i);
+            if (piece.added || piece.start != expected) {
+                return true;
+            }
+            expected += piece.length;
+        }
+        return expected != loaded;
+    }
+
+    /**
+     * The ranges of the original body that changed, as edits in ascending
+     * order. The unloaded rest of the original counts as removed.
+     */
+    List<NoteEdit> edits() {
+        List<NoteEdit> edits = new ArrayList<>();
+        int cursor = 0;
+        StringBuilder inserted = new StringBuilder();
+        // The last piece is the implied newline
+        for (int i = 0; i < pieces.size() - 1; i++) {
+            Piece piece = pieces.get(i);
+            if (piece.added) {
+                inserted.append(added, piece.start, piece.start + piece.length);
+                continue;
+            }
+            if (piece.start > cursor || inserted.length() > 0) {
+                edits.add(new NoteEdit(cursor, piece.start - cursor, inserted.toString()));
+                inserted.setLength(0);
+            }
+            cursor = piece.start + piece.length;
+        }
+        if (cursor < original.length() || inserted.length() > 0) {
+            edits.add(new NoteEdit(cursor, original.length() - cursor, inserted.toString()));
+        }
+        return edits;
+    }
+
+    private void updateMarksForInsert(int offset, int count) {
+        // Zero is special: only marks after it move
+        moveGap(offset == 0 ? 1 : offset);
+        if (gapLength < count) {
+            // Grow the gap by about the text's length, so it rarely grows
+            int grow = count + Math.max(1024, length);
+            for (int i = firstMark(gapStart); i < marks.size(); i++) {
+                marks.get(i).index += grow;
+            }
+            gapLength += grow;
+        }
+        gapLength -= count;
+    }
+
+    private void updateMarksForRemove(int offset, int count) {
+        moveGap(offset);
+        // Marks in the removed range collapse onto its end, which becomes offset
+        int end = gapStart + gapLength + count;
+        for (int i = firstMark(gapStart + gapLength); i < marks.size() && marks.get(i).index < end; i++) {
+            marks.get(i).index = end;
+        }
+        gapLength += count;
+    }
+
+    /**
+     * Move the gap to an offset, so the marks before it are stored as
+     * they are and the marks from it on are shifted
+     */
+    private void moveGap(int offset) {
+        if (offset < gapStart) {
+            for (int i = firstMark(offset); i < marks.size() && marks.get(i).index < gapStart; i++) {
+                marks.get(i).index += gapLength;
+            }
+        } else if (offset > gapStart) {
+            int end = offset + gapLength;
+            for (int i = firstMark(gapStart + gapLength); i < marks.size() && marks.get(i).index < end; i++) {
+                marks.get(i).index -= gapLength;
+            }
+        }
+        gapStart = offset;
+    }
+
+    /**
+     * Position in {@code marks} of the first mark stored at {@code index}
+     * or later
+     */
+    private int firstMark(int index) {
+        int low = 0;
+        int high = marks.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (marks.get(middle).index < index) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
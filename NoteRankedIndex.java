@@ -0,0 +1,522 @@
+import java.util.*;
+
+/**
+ * Word index for relevance-ranked, typo-tolerant search.
+ *
+ * Titles and bodies are split into case-folded words, and each word keeps
+ * a posting list of the notes containing it with how often it appears in
+ * the title and in the body. Matches are scored with BM25F: per-field term
+ * counts, normalized by field length, are combined with the title weighted
+ * {@link #TITLE_BOOST} times the body, then saturated and weighted by the
+ * word's rarity. Only the best k notes are kept, in a bounded heap.
+ *
+ * A query word of four or more letters that no note contains is matched to
+ * vocabulary words within one edit (two from eight letters up), found
+ * through a trigram index over the vocabulary and confirmed with a bounded
+ * edit distance in which swapping two adjacent letters is one edit. Such
+ * matches count for less the more edits they need.
+ *
+ * Notes are identified by the slots of the manager's
+ * {@link NoteAttributeIndex}, so a filter bitmap can restrict a search.
+ * Each posting list is a hash table keyed by slot, so removing a note
+ * costs the same however many notes share its words, and a word that no
+ * note contains any more leaves the vocabulary. Updates need exclusive
+ * access; searches may run concurrently.
+ */
+public class NoteRankedIndex {
+    static final double TITLE_BOOST = 3.0;
+    private static final double K1 = 1.2;
+    private static final double TITLE_B = 0.5;
+    private static final double CONTENT_B = 0.75;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int MIN_FUZZY_LENGTH = 4;
+    private static final int TWO_EDIT_LENGTH = 8;
+    private static final int MAX_EXPANSIONS = 8;
+    private static final int CANCEL_CHECK_MASK = 1023;
+
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private String[] terms = new String[1024];
+    private Postings[] postings = new Postings[1024];
+    // Ids in use are below termCount; ids of dropped words are reused
+    private int termCount;
+    private int[] freeTermIds = new int[16];
+    private int freeTermCount;
+    // Padded trigrams of vocabulary words, for typo lookups
+    private final Map<Long, IntList> termsByTrigram = new HashMap<>();
+
+    private Note[] notes = new Note[1024];
+    private int[] titleLengths = new int[1024];
+    private int[] contentLengths = new int[1024];
+    private int documents;
+    private long totalTitleLength;
+    private long totalContentLength;
+
+    /**
+     * A note and its relevance score
+     */
+    public static final class Hit {
+        private final Note note;
+        private final double score;
+
+        Hit(Note note, double score) {
+            this.note = note;
+            this.score = score;
+        }
+
+        public Note getNote() { return note; }
+        public double getScore() { return score; }
+
+        @Override
+        public String toString() {
+            return String.format("%.3f %s", score, note.getTitle());
+        }
+    }
+
+    /**
+     * Notes containing one word, with the word's title and body counts
+     * packed into one int (16 bits each, saturating). An open-addressing
+     * table keyed by slot, kept between a quarter and half full; free
+     * cells hold -1.
+     */
+    private static final class Postings {
+        int[] slots = freeCells(4);
+        int[] counts = new int[4];
+        int size;
+
+        /**
+         * Add a slot, or replace its counts if it is already present
+         */
+        void put(int slot, int count) {
+            if ((size + 1) * 2 > slots.length) {
+                resize(slots.length * 2);
+            }
+            int mask = slots.length - 1;
+            int cell = hash(slot) & mask;
+            while (slots[cell] != -1 && slots[cell] != slot) {
+                cell = (cell + 1) & mask;
+            }
+            if (slots[cell] == -1) {
+                slots[cell] = slot;
+                size++;
+            }
+            counts[cell] = count;
+        }
+
+        void remove(int slot) {
+            int mask = slots.length - 1;
+            int cell = hash(slot) & mask;
+            while (slots[cell] != slot) {
+                if (slots[cell] == -1) {
+                    return;
+                }
+                cell = (cell + 1) & mask;
+            }
+            slots[cell] = -1;
+            size--;
+            // Move later entries of the probe run back into the gap
+            for (int i = (cell + 1) & mask; slots[i] != -1; i = (i + 1) & mask) {
+                int home = hash(slots[i]) & mask;
+                if (((i - home) & mask) >= ((i - cell) & mask)) {
+                    slots[cell] = slots[i];
+                    counts[cell] = counts[i];
+                    slots[i] = -1;
+                    cell = i;
+                }
+            }
+            if (slots.length > 4 && size * 8 < slots.length) {
+                resize(slots.length / 2);
+            }
+        }
+
+        private void resize(int capacity) {
+            int[] oldSlots = slots;
+            int[] oldCounts = counts;
+            slots = freeCells(capacity);
+            counts = new int[capacity];
+            size = 0;
+            for (int i = 0; i < oldSlots.length; i++) {
+                if (oldSlots[i] != -1) {
+                    put(oldSlots[i], oldCounts[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sums by slot or term id, in a table sized for the keys a query
+     * visits rather than for the whole corpus: the scores of the notes it
+     * matches, or the trigrams fuzzy candidates share with a word
+     */
+    private static final class Scores {
+        final int[] slots;
+        final float[] values;
+        int size;
+
+        Scores(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(1, 2 * expected - 1)) << 1;
+            slots = freeCells(capacity);
+            values = new float[capacity];
+        }
+
+        void add(int slot, float score) {
+            int mask = slots.length - 1;
+            int cell = hash(slot) & mask;
+            while (slots[cell] != -1 && slots[cell] != slot) {
+                cell = (cell + 1) & mask;
+            }
+            if (slots[cell] == -1) {
+                slots[cell] = slot;
+                size++;
+            }
+            values[cell] += score;
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    values[i] = values[--size];
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Index a note under an attribute index slot, replacing the note
+     * indexed there before
+     */
+    public void add(Note note, int slot) {
+        if (slot < notes.length && notes[slot] != null) {
+            remove(notes[slot], slot);
+        }
+        Map<String, int[]> counts = new HashMap<>();
+        int titleLength = countTerms(note.getTitle(), 0, counts);
+        int contentLength = countTerms(note.scanContent(), 1, counts);
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            int[] count = entry.getValue();
+            int id = termId(entry.getKey());
+            postings[id].put(slot,
+                    Math.min(count[0], 0xFFFF) << 16 | Math.min(count[1], 0xFFFF));
+        }
+        if (slot >= notes.length) {
+            int capacity = Math.max(notes.length * 2, slot + 1);
+            notes = Arrays.copyOf(notes, capacity);
+            titleLengths = Arrays.copyOf(titleLengths, capacity);
+            contentLengths = Arrays.copyOf(contentLengths, capacity);
+        }
+        notes[slot] = note;
+        titleLengths[slot] = titleLength;
+        contentLengths[slot] = contentLength;
+        documents++;
+        totalTitleLength += titleLength;
+        totalContentLength += contentLength;
+    }
+
+    /**
+     * Remove the note indexed under a slot; its text must not have changed
+     */
+    public void remove(Note note, int slot) {
+        if (slot < 0 || slot >= notes.length || notes[slot] == null) {
+            return;
+        }
+        Map<String, int[]> counts = new HashMap<>();
+        countTerms(note.getTitle(), 0, counts);
+        countTerms(note.scanContent(), 1, counts);
+        for (String term : counts.keySet()) {
+            Integer id = termIds.get(term);
+            if (id != null) {
+                postings[id].remove(slot);
+                if (postings[id].size == 0) {
+                    dropTerm(id);
+                }
+            }
+        }
+        notes[slot] = null;
+        documents--;
+        totalTitleLength -= titleLengths[slot];
+        totalContentLength -= contentLengths[slot];
+    }
+
+    /**
+     * Forget every note; the vocabulary is dropped too
+     */
+    public void clear() {
+        termIds.clear();
+        terms = new String[1024];
+        postings = new Postings[1024];
+        termCount = 0;
+        freeTermCount = 0;
+        termsByTrigram.clear();
+        notes = new Note[1024];
+        titleLengths = new int[1024];
+        contentLengths = new int[1024];
+        documents = 0;
+        totalTitleLength = 0;
+        totalContentLength = 0;
+    }
+
+    /**
+     * The {@code limit} notes most relevant to a query, best first, among
+     * the slots in {@code allowed} (or all notes when it is null). Ties go
+     * to the more recently modified note. An interrupted caller stops early
+     * with partial results.
+     */
+    public List<Hit> search(String query, int limit, NoteBitmap allowed) {
+        Set<String> words = new LinkedHashSet<>(tokenize(query));
+        if (words.isEmpty() || limit <= 0 || documents == 0) {
+            return new ArrayList<>();
+        }
+        double averageTitle = Math.max(1.0, (double) totalTitleLength / documents);
+        double averageContent = Math.max(1.0, (double) totalContentLength / documents);
+        List<long[]> expansions = new ArrayList<>(words.size());
+        long visited = 0;
+        for (String word : words) {
+            long[] expanded = expand(word);
+            expansions.add(expanded);
+            for (long expansion : expanded) {
+                visited += postings[(int) expansion].size;
+            }
+        }
+        Scores scores = new Scores((int) Math.min(visited, documents));
+        int checked = 0;
+        search:
+        for (long[] expanded : expansions) {
+            for (long expansion : expanded) {
+                Postings list = postings[(int) expansion];
+                double weight = 1.0 / (1 + (expansion >>> 32));
+                double idf = Math.log(1 + (documents - list.size + 0.5) / (list.size + 0.5));
+                for (int i = 0; i < list.slots.length; i++) {
+                    int slot = list.slots[i];
+                    if (slot == -1) {
+                        continue;
+                    }
+                    if ((++checked & CANCEL_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) {
+                        break search;
+                    }
+                    if (allowed != null && !allowed.contains(slot)) {
+                        continue;
+                    }
+                    int count = list.counts[i];
+                    double tf = TITLE_BOOST * (count >>> 16)
+                            / (1 - TITLE_B + TITLE_B * titleLengths[slot] / averageTitle)
+                            + (count & 0xFFFF)
+                            / (1 - CONTENT_B + CONTENT_B * contentLengths[slot] / averageContent);
+                    scores.add(slot, (float) (weight * idf * tf / (K1 + tf)));
+                }
+            }
+        }
+
+        Comparator<Hit> worstFirst = Comparator.comparingDouble(Hit::getScore)
+                .thenComparing(hit -> hit.getNote().getModifiedAt());
+        PriorityQueue<Hit> best = new PriorityQueue<>(Math.min(limit, scores.size) + 1, worstFirst);
+        for (int i = 0; i < scores.slots.length; i++) {
+            int slot = scores.slots[i];
+            if (slot == -1) {
+                continue;
+            }
+            Hit hit = new Hit(notes[slot], scores.values[i]);
+            if (best.size() < limit) {
+                best.add(hit);
+            } else if (worstFirst.compare(hit, best.peek()) > 0) {
+                best.poll();
+                best.add(hit);
+            }
+        }
+        List<Hit> hits = new ArrayList<>(best);
+        hits.sort(worstFirst.reversed());
+        return hits;
+    }
+
+    /**
+     * Term ids to score for a query word, each with its edit distance in
+     * the upper 32 bits: the word itself if any note contains it, otherwise
+     * the closest vocabulary words within the edit bound
+     */
+    private long[] expand(String word) {
+        Integer exact = termIds.get(word);
+        if (exact != null) {
+            return new long[] { exact };
+        }
+        if (word.length() < MIN_FUZZY_LENGTH) {
+            return new long[0];
+        }
+        int maxEdits = word.length() >= TWO_EDIT_LENGTH ? 2 : 1;
+        // An edit changes at most four trigrams (a swap of two letters)
+        Set<Long> grams = trigrams(word);
+        int needed = grams.size() - 4 * maxEdits;
+        List<IntList> lists = new ArrayList<>(grams.size());
+        int listed = 0;
+        for (long gram : grams) {
+            IntList ids = termsByTrigram.get(gram);
+            if (ids != null) {
+                lists.add(ids);
+                listed += ids.size;
+            }
+        }
+        Scores shared = new Scores(Math.min(listed, termCount));
+        for (IntList ids : lists) {
+            for (int i = 0; i < ids.size; i++) {
+                shared.add(ids.values[i], 1);
+            }
+        }
+        List<long[]> close = new ArrayList<>();
+        for (int cell = 0; cell < shared.slots.length; cell++) {
+            int id = shared.slots[cell];
+            if (id == -1 || shared.values[cell] < needed
+                    || Math.abs(terms[id].length() - word.length()) > maxEdits) {
+                continue;
+            }
+            int distance = editDistance(word, terms[id], maxEdits);
+            if (distance <= maxEdits) {
+                close.add(new long[] { id, distance, postings[id].size });
+            }
+        }
+        close.sort((a, b) -> a[1] != b[1] ? Long.compare(a[1], b[1]) : Long.compare(b[2], a[2]));
+        long[] expansions = new long[Math.min(MAX_EXPANSIONS, close.size())];
+        for (int i = 0; i < expansions.length; i++) {
+            expansions[i] = close.get(i)[1] << 32 | close.get(i)[0];
+        }
+        return expansions;
+    }
+
+    /**
+     * Levenshtein distance counting a swap of adjacent letters as one edit
+     * (optimal string alignment), or {@code max + 1} once it must exceed max
+     */
+    static int editDistance(String a, String b, int max) {
+        int[] beforePrevious = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitute = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitute, Math.min(previous[j], current[j - 1]) + 1);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    current[j] = Math.min(current[j], beforePrevious[j - 2] + 1);
+                }
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] recycled = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+
+    /**
+     * Case-folded words of a text, in order
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                if (word.length() <= MAX_TERM_LENGTH) {
+                    words.add(word.toString());
+                }
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+
+    private static int countTerms(String text, int field, Map<String, int[]> counts) {
+        List<String> words = tokenize(text);
+        for (String word : words) {
+            counts.computeIfAbsent(word, w -> new int[2])[field]++;
+        }
+        return words.size();
+    }
+
+    private int termId(String term) {
+        Integer id = termIds.get(term);
+        if (id != null) {
+            return id;
+        }
+        int added;
+        if (freeTermCount > 0) {
+            added = freeTermIds[--freeTermCount];
+        } else {
+            if (termCount == terms.length) {
+                terms = Arrays.copyOf(terms, termCount * 2);
+                postings = Arrays.copyOf(postings, termCount * 2);
+            }
+            added = termCount++;
+        }
+        terms[added] = term;
+        postings[added] = new Postings();
+        termIds.put(term, added);
+        for (long gram : trigrams(term)) {
+            termsByTrigram.computeIfAbsent(gram, g -> new IntList()).add(added);
+        }
+        return added;
+    }
+
+    /**
+     * Forget a word no note contains any more, freeing its id
+     */
+    private void dropTerm(int id) {
+        String term = terms[id];
+        termIds.remove(term);
+        for (long gram : trigrams(term)) {
+            IntList ids = termsByTrigram.get(gram);
+            ids.remove(id);
+            if (ids.size == 0) {
+                termsByTrigram.remove(gram);
+            }
+        }
+        terms[id] = null;
+        postings[id] = null;
+        if (freeTermCount == freeTermIds.length) {
+            freeTermIds = Arrays.copyOf(freeTermIds, freeTermCount * 2);
+        }
+        freeTermIds[freeTermCount++] = id;
+    }
+
+    private static int hash(int slot) {
+        int h = slot * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int[] freeCells(int capacity) {
+        int[] cells = new int[capacity];
+        Arrays.fill(cells, -1);
+        return cells;
+    }
+
+    /**
+     * Distinct trigrams of a word padded with a boundary mark at each end
+     */
+    private static Set<Long> trigrams(String word) {
+        String padded = '\u0002' + word + '\u0003';
+        Set<Long> grams = new HashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add((long) padded.charAt(i) << 32 | (long) padded.charAt(i + 1) << 16 | padded.charAt(i + 2));
+        }
+        return grams;
+    }
+}
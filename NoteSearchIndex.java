@@ -0,0 +1,370 @@
+import java.util.*;
+
+/**
+ * Inverted trigram index over note titles and content.
+ *
+ * Every case-folded three-character window of a note is a posting key. A
+ * substring query is answered by intersecting the posting lists of its own
+ * trigrams and verifying the few surviving candidates in place, so the cost
+ * depends on the number of candidates rather than the size of the corpus.
+ *
+ * Notes are identified by the slots of the manager's
+ * {@link NoteAttributeIndex}. Trigrams are packed into longs and looked up
+ * in an open-addressing table, and each posting list is a
+ * {@link NoteBitmap} of slots, so neither a lookup nor a posting allocates
+ * an object and a common trigram costs at most a bit per note.
+ *
+ * The index can start from the postings saved with a snapshot
+ * ({@link #setBase}), which are searched in place from the index file;
+ * only notes added or changed since then are held in the in-memory
+ * postings, and the snapshot's notes removed since are masked out.
+ */
+public class NoteSearchIndex {
+    private static final int CANCEL_CHECK_MASK = 1023;
+
+    // Open-addressing table of posting lists by trigram; null cells are free
+    private Postings[] table = new Postings[1024];
+    private int keyCount;
+    private Note[] notes = new Note[1024];
+    private Base base;
+
+    /**
+     * Slots of the notes containing one trigram
+     */
+    private static final class Postings {
+        final long key;
+        final NoteBitmap slots = new NoteBitmap();
+
+        Postings(long key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Saved postings over the notes of a snapshot, by position in it
+     */
+    private static final class Base {
+        final NoteIndexFile file;
+        final Note[] notes;
+        final BitSet removed;
+        // Positions by note id, built on the first removal
+        Map<String, Integer> slots;
+
+        Base(NoteIndexFile file, Note[] notes) {
+            this.file = file;
+            this.notes = notes;
+            this.removed = new BitSet(notes.length);
+        }
+
+        int slotOf(Note note) {
+            if (slots == null) {
+                slots = new HashMap<>(notes.length * 2);
+                for (int i = 0; i < notes.length; i++) {
+                    slots.put(notes[i].getId(), i);
+                }
+            }
+            Integer slot = slots.get(note.getId());
+            return slot != null && notes[slot] == note ? slot : -1;
+        }
+    }
+
+    /**
+     * Start from the postings saved for {@code notes}, the notes of a
+     * snapshot in file order, all of them taken as indexed. Must be called
+     * on an empty index; notes no longer current are removed with
+     * {@link #removeBase}.
+     */
+    void setBase(NoteIndexFile file, Note[] notes) {
+        base = new Base(file, notes);
+    }
+
+    /**
+     * Drop the snapshot note at a position of the base
+     */
+    void removeBase(int slot) {
+        base.removed.set(slot);
+    }
+
+    /**
+     * Index a note's current title and content under an attribute index
+     * slot
+     */
+    public void add(Note note, int slot) {
+        if (slot >= notes.length) {
+            notes = Arrays.copyOf(notes, Math.max(notes.length * 2, slot + 1));
+        }
+        notes[slot] = note;
+        addTrigrams(note.getTitle(), slot);
+        addTrigrams(note.scanContent(), slot);
+    }
+
+    /**
+     * Remove the note indexed under a slot; its text must not have changed
+     * since it was added
+     */
+    public void remove(Note note, int slot) {
+        if (base != null) {
+            int position = base.slotOf(note);
+            if (position >= 0) {
+                base.removed.set(position);
+                return;
+            }
+        }
+        if (slot < 0 || slot >= notes.length || notes[slot] == null) {
+            return;
+        }
+        removeTrigrams(note.getTitle(), slot);
+        removeTrigrams(note.scanContent(), slot);
+        notes[slot] = null;
+    }
+
+    public void clear() {
+        table = new Postings[1024];
+        keyCount = 0;
+        notes = new Note[1024];
+        base = null;
+    }
+
+    /**
+     * Find notes whose title or content contains the query, ignoring case.
+     * Queries shorter than a trigram fall back to scanning {@code all}.
+     * An interrupted caller stops early and gets a partial result.
+     */
+    public List<Note> search(String query, Collection<Note> all) {
+        List<Note> results = new ArrayList<>();
+        int checked = 0;
+        if (query.length() < 3) {
+            for (Note note : all) {
+                if ((++checked & CANCEL_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                if (matches(note, query)) {
+                    results.add(note);
+                }
+            }
+            return results;
+        }
+
+        int count = query.length() - 2;
+        if (base != null) {
+            searchBase(query, count, results);
+        }
+        NoteBitmap[] lists = new NoteBitmap[count];
+        int shortest = 0;
+        int shortestSize = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            Postings list = find(trigram(query, i));
+            if (list == null) {
+                return results;
+            }
+            lists[i] = list.slots;
+            int size = list.slots.cardinality();
+            if (size < shortestSize) {
+                shortest = i;
+                shortestSize = size;
+            }
+        }
+        // Drive the intersection from the shortest posting list; once the
+        // caller is interrupted the remaining candidates are skipped
+        int driver = shortest;
+        int[] visited = new int[1];
+        lists[driver].forEach(slot -> {
+            if (visited[0] < 0 || (++visited[0] & CANCEL_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) {
+                visited[0] = -1;
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                if (i != driver && !lists[i].contains(slot)) {
+                    return;
+                }
+            }
+            if (matches(notes[slot], query)) {
+                results.add(notes[slot]);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Intersect the saved posting lists of the query's trigrams. Lists are
+     * ascending positions, so each candidate from the shortest list is
+     * looked up in the others by a binary search from where the previous
+     * candidate was found.
+     */
+    private void searchBase(String query, int count, List<Note> results) {
+        NoteIndexFile file = base.file;
+        int[] from = new int[count];
+        int[] to = new int[count];
+        int shortest = 0;
+        for (int i = 0; i < count; i++) {
+            int key = file.find(trigram(query, i));
+            if (key < 0) {
+                return;
+            }
+            from[i] = file.postingsStart(key);
+            to[i] = file.postingsStart(key + 1);
+            if (to[i] - from[i] < to[shortest] - from[shortest]) {
+                shortest = i;
+            }
+        }
+        int checked = 0;
+        for (int p = from[shortest]; p < to[shortest]; p++) {
+            if ((++checked & CANCEL_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            int slot = file.posting(p);
+            if (base.removed.get(slot)) {
+                continue;
+            }
+            boolean inAll = true;
+            for (int i = 0; i < count && inAll; i++) {
+                if (i != shortest) {
+                    int found = file.searchPostings(from[i], to[i], slot);
+                    inAll = found >= 0;
+                    from[i] = inAll ? found : -found - 1;
+                }
+            }
+            if (inAll && matches(base.notes[slot], query)) {
+                results.add(base.notes[slot]);
+            }
+        }
+    }
+
+    static boolean matches(Note note, String query) {
+        return containsIgnoreCase(note.getTitle(), query) || containsIgnoreCase(note.scanContent(), query);
+    }
+
+    /**
+     * Case-insensitive substring test that compares regions in place
+     * instead of building lowercased copies. Positions whose first character
+     * cannot start a match are skipped without comparing the region.
+     */
+    public static boolean containsIgnoreCase(String text, String query) {
+        int length = query.length();
+        if (length == 0) {
+            return true;
+        }
+        char first = query.charAt(0);
+        char lower = Character.toLowerCase(first);
+        char upper = Character.toUpperCase(first);
+        // ASCII folds only within ASCII; other characters take the full test
+        boolean asciiFirst = first < 128;
+        int last = text.length() - length;
+        for (int i = 0; i <= last; i++) {
+            char c = text.charAt(i);
+            if (asciiFirst && c < 128 && c != lower && c != upper) {
+                continue;
+            }
+            if (text.regionMatches(true, i, query, 0, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addTrigrams(String text, int slot) {
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            long key = trigram(text, i);
+            int cell = cellOf(key);
+            Postings list = cell >= 0 ? table[cell] : insert(key);
+            list.slots.add(slot);
+        }
+    }
+
+    private void removeTrigrams(String text, int slot) {
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            int cell = cellOf(trigram(text, i));
+            if (cell >= 0) {
+                table[cell].slots.remove(slot);
+                if (table[cell].slots.isEmpty()) {
+                    free(cell);
+                }
+            }
+        }
+    }
+
+    /**
+     * Posting list of a trigram, or null if no note contains it
+     */
+    private Postings find(long key) {
+        int cell = cellOf(key);
+        return cell >= 0 ? table[cell] : null;
+    }
+
+    /**
+     * Cell holding a trigram's list, or -1
+     */
+    private int cellOf(long key) {
+        int mask = table.length - 1;
+        for (int cell = home(key); table[cell] != null; cell = (cell + 1) & mask) {
+            if (table[cell].key == key) {
+                return cell;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Add an empty list for a trigram not in the table, growing the table
+     * to keep it at most half full
+     */
+    private Postings insert(long key) {
+        if ((keyCount + 1) * 2 > table.length) {
+            Postings[] old = table;
+            table = new Postings[old.length * 2];
+            for (Postings list : old) {
+                if (list != null) {
+                    place(list);
+                }
+            }
+        }
+        Postings list = new Postings(key);
+        place(list);
+        keyCount++;
+        return list;
+    }
+
+    private void place(Postings list) {
+        int cell = home(list.key);
+        while (table[cell] != null) {
+            cell = (cell + 1) & (table.length - 1);
+        }
+        table[cell] = list;
+    }
+
+    /**
+     * Empty a cell, moving later entries of its probe run back into the
+     * gap so lookups never stop short of them
+     */
+    private void free(int cell) {
+        int mask = table.length - 1;
+        table[cell] = null;
+        keyCount--;
+        for (int i = (cell + 1) & mask; table[i] != null; i = (i + 1) & mask) {
+            int home = home(table[i].key);
+            if (((i - home) & mask) >= ((i - cell) & mask)) {
+                table[cell] = table[i];
+                table[i] = null;
+                cell = i;
+            }
+        }
+    }
+
+    private int home(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (table.length - 1);
+    }
+
+    static long trigram(String text, int start) {
+        return ((long) fold(text.charAt(start)) << 32)
+                | ((long) fold(text.charAt(start + 1)) << 16)
+                | fold(text.charAt(start + 2));
+    }
+
+    /**
+     * Fold a character the same way {@link String#regionMatches(boolean, int, String, int, int)}
+     * compares it, so index keys agree with candidate verification
+     */
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
@@ -0,0 +1,711 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless HTTP/JSON front end for a {@link NoteManager}, so scripts and
+ * other tools can share one note store.
+ *
+ * Endpoints:
+ *   GET    /notes?offset=0&limit=50      page of notes, newest first
+ *   GET    /notes?q=text&offset&limit    page of search results
+ *   GET    /notes?tag=a,b&from&to&q      page of notes with every tag, modified
+ *                                        in [from, to) and containing q
+ *   POST   /notes                        create from {"title":..,"content":..,
+ *                                        "tags":[..],"metadata":{..}}
+ *   GET    /notes/{id}                   one note
+ *   PUT    /notes/{id}                   update; missing fields keep their value
+ *   DELETE /notes/{id}                   delete
+ *   GET    /search?q=text&limit&tag&from&to
+ *                                        best matches ranked by relevance, with
+ *                                        typo tolerance and scores
+ *   GET    /tags?tag&from&to&q           note count per tag among matching notes
+ *   GET    /histogram?unit=day|week&field=modified|created&from&to
+ *                                        notes per day or week
+ *   GET    /metrics                      operation timings as text
+ *
+ * from and to are ISO dates or date-times and bound the modification
+ * time; createdFrom and createdTo bound the creation time. A date alone as
+ * an upper bound includes that whole day. A {@code meta.key=value}
+ * parameter requires a metadata value.
+ *
+ * Changes are acknowledged once applied in memory, like edits in the app;
+ * add {@code sync=true} to wait until they are on disk.
+ *
+ * Each connection is served by one thread that reads its requests in
+ * order, so keep-alive and pipelining come for free: replies to a
+ * pipelined batch are written back together in one flush. The thread is a
+ * virtual thread when the JVM has them (Java 21+), so thousands of open
+ * connections cost little; older JVMs use a platform thread per
+ * connection. The JDK's built-in HttpServer is not used because it stalls
+ * on pipelined requests it has already buffered.
+ *
+ * Usage: java NoteServer [port]   (default 8080, or -Dnotes.port)
+ */
+public class NoteServer implements Closeable {
+    private static final int DEFAULT_PAGE = 50;
+    private static final int MAX_PAGE = 1000;
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+    private static final int MAX_BODY_BYTES = 8 * 1024 * 1024;
+    private static final int BACKLOG = 4096;
+    private static final int IDLE_TIMEOUT_MS = 60_000;
+
+    private final NoteManager noteManager;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    /**
+     * A parsed request
+     */
+    private static final class Request {
+        String method;
+        String path;
+        Map<String, String> query;
+        String body = "";
+        boolean keepAlive;
+    }
+
+    /**
+     * A reply ready to be written; a null body sends no content
+     */
+    private static final class Response {
+        final int status;
+        final String contentType;
+        final byte[] body;
+        String location;
+
+        Response(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body == null ? null : body.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A request the server cannot read; the connection is closed after the
+     * error reply
+     */
+    private static final class BadRequest extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        BadRequest(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    public NoteServer(NoteManager noteManager, InetSocketAddress address) throws IOException {
+        this.noteManager = noteManager;
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(address, BACKLOG);
+        this.executor = newConnectionExecutor();
+        // Not a daemon: it keeps a headless server's JVM alive until close()
+        this.acceptor = new Thread(this::acceptLoop, "note-server-acceptor");
+    }
+
+    public void start() {
+        acceptor.start();
+    }
+
+    /**
+     * Port the server listens on, useful when it was bound to port 0
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stop accepting connections and close the open ones. The note manager
+     * stays open.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing note server: " + e.getMessage());
+        }
+        for (Socket socket : connections) {
+            closeQuietly(socket);
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * One virtual thread per task where available, else a platform thread
+     * per task, reused once its connection closes
+     */
+    static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(null, r, "note-server-" + count.incrementAndGet(), 256 * 1024);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Error accepting connection: " + e.getMessage());
+                }
+                continue;
+            }
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(IDLE_TIMEOUT_MS);
+                connections.add(socket);
+                executor.execute(() -> serve(socket));
+            } catch (IOException | RuntimeException e) {
+                connections.remove(socket);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Answer requests on one connection until the client closes it, asks
+     * to close it, or goes idle. Replies are flushed only once no further
+     * request is already waiting, so a pipelined batch goes out together.
+     */
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+            while (true) {
+                Request request;
+                try {
+                    request = readRequest(in, out);
+                } catch (BadRequest e) {
+                    writeResponse(out, error(e.status, e.getMessage()), false);
+                    out.flush();
+                    return;
+                }
+                if (request == null) {
+                    return;
+                }
+                writeResponse(out, handle(request), request.keepAlive);
+                if (!request.keepAlive) {
+                    out.flush();
+                    return;
+                }
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (SocketTimeoutException | SocketException | EOFException e) {
+            // Idle, reset or closed by the client or by close()
+        } catch (IOException e) {
+            System.err.println("Error serving connection: " + e.getMessage());
+        } finally {
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private Response handle(Request request) {
+        try {
+            if (request.path.equals("/metrics") && request.method.equals("GET")) {
+                return new Response(200, "text/plain; charset=utf-8", noteManager.getMetrics().report()
+                        + "\nBody cache: " + noteManager.getBodyCacheStats() + "\n");
+            }
+            if (request.path.equals("/search") && request.method.equals("GET")) {
+                return search(request.query);
+            }
+            if (request.path.equals("/histogram") && request.method.equals("GET")) {
+                return histogram(request.query);
+            }
+            if (request.path.equals("/tags") && request.method.equals("GET")) {
+                return tags(request.query);
+            }
+            if (request.path.equals("/notes") || request.path.equals("/notes/")) {
+                if (request.method.equals("GET")) {
+                    return list(request.query);
+                }
+                if (request.method.equals("POST")) {
+                    return create(request);
+                }
+                return error(405, "Use GET or POST on /notes");
+            }
+            if (!request.path.startsWith("/notes/")) {
+                return error(404, "No such resource " + request.path);
+            }
+            String id = request.path.substring("/notes/".length());
+            switch (request.method) {
+                case "GET": {
+                    Note note = noteManager.findNoteById(id);
+                    return note == null ? error(404, "No note " + id) : note(200, note);
+                }
+                case "PUT":
+                    return update(id, request);
+                case "DELETE":
+                    if (!noteManager.deleteNote(id)) {
+                        return error(404, "No note " + id);
+                    }
+                    awaitIfSync(request.query);
+                    return new Response(204, null, null);
+                default:
+                    return error(405, "Use GET, PUT or DELETE on /notes/{id}");
+            }
+        } catch (IllegalArgumentException e) {
+            return error(400, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error serving " + request.method + " " + request.path + ": " + e.getMessage());
+            return error(500, e.getMessage());
+        }
+    }
+
+    private Response list(Map<String, String> query) {
+        int offset = intParam(query, "offset", 0, Integer.MAX_VALUE);
+        int limit = intParam(query, "limit", DEFAULT_PAGE, MAX_PAGE);
+        NoteFilter filter = filter(query);
+        int total;
+        List<Note> page;
+        if (!filter.hasAttributes() && !filter.hasText()) {
+            total = noteManager.getNotesCount();
+            page = noteManager.getNotesSortedByDate(offset, limit);
+        } else {
+            List<Note> results = noteManager.filterNotes(filter);
+            total = results.size();
+            page = results.subList(Math.min(offset, total), (int) Math.min(total, (long) offset + limit));
+        }
+        StringBuilder json = new StringBuilder(256 + page.size() * 256);
+        json.append("{\"total\":").append(total)
+                .append(",\"offset\":").append(offset)
+                .append(",\"limit\":").append(limit)
+                .append(",\"notes\":[");
+        for (int i = 0; i < page.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            NoteJson.writeNote(json, page.get(i));
+        }
+        json.append("]}");
+        return new Response(200, "application/json; charset=utf-8", json.toString());
+    }
+
+    private Response search(Map<String, String> query) {
+        NoteFilter filter = filter(query);
+        if (!filter.hasText()) {
+            return error(400, "q is required");
+        }
+        List<NoteRankedIndex.Hit> hits = noteManager.searchRanked(filter,
+                intParam(query, "limit", DEFAULT_PAGE, MAX_PAGE));
+        StringBuilder json = new StringBuilder(64 + hits.size() * 280);
+        json.append("{\"hits\":[");
+        for (int i = 0; i < hits.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"score\":").append(String.format(Locale.ROOT, "%.4f", hits.get(i).getScore()))
+                    .append(",\"note\":");
+            NoteJson.writeNote(json, hits.get(i).getNote());
+            json.append('}');
+        }
+        json.append("]}");
+        return new Response(200, "application/json; charset=utf-8", json.toString());
+    }
+
+    private Response tags(Map<String, String> query) {
+        StringBuilder json = new StringBuilder(256).append("{\"tags\":{");
+        boolean first = true;
+        for (Map.Entry<String, Integer> entry : noteManager.getTagCounts(filter(query)).entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            NoteJson.quote(json, entry.getKey());
+            json.append(':').append(entry.getValue());
+            first = false;
+        }
+        json.append("}}");
+        return new Response(200, "application/json; charset=utf-8", json.toString());
+    }
+
+    private Response histogram(Map<String, String> query) {
+        NoteTimeHistogram.Unit unit = enumParam(NoteTimeHistogram.Unit.class, query, "unit", NoteTimeHistogram.Unit.DAY);
+        NoteTimeHistogram.Field field = enumParam(NoteTimeHistogram.Field.class, query, "field",
+                NoteTimeHistogram.Field.MODIFIED);
+        LocalDateTime from = timeParam(query, "from", false);
+        LocalDateTime to = timeParam(query, "to", false);
+        NoteTimeHistogram histogram = noteManager.getHistogram(field, unit,
+                from != null ? from.toLocalDate() : null, to != null ? to.toLocalDate() : null);
+        StringBuilder json = new StringBuilder(64 + histogram.size() * 40);
+        json.append("{\"unit\":\"").append(unit.name().toLowerCase())
+                .append("\",\"field\":\"").append(field.name().toLowerCase())
+                .append("\",\"total\":").append(histogram.getTotal())
+                .append(",\"buckets\":[");
+        for (int i = 0; i < histogram.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"start\":\"").append(histogram.getStart(i))
+                    .append("\",\"count\":").append(histogram.getCount(i)).append('}');
+        }
+        json.append("]}");
+        return new Response(200, "application/json; charset=utf-8", json.toString());
+    }
+
+    private Response create(Request request) throws IOException {
+        Map<String, String> fields = NoteJson.parseObject(request.body);
+        Note note = noteManager.addNote(fields.getOrDefault("title", "Untitled"), fields.getOrDefault("content", ""),
+                NoteJson.tags(fields), NoteJson.metadata(fields));
+        awaitIfSync(request.query);
+        Response response = note(201, note);
+        response.location = "/notes/" + note.getId();
+        return response;
+    }
+
+    private Response update(String id, Request request) throws IOException {
+        Map<String, String> fields = NoteJson.parseObject(request.body);
+        // Fields left out are kept; the manager merges under its lock
+        if (!noteManager.updateNote(id, fields.get("title"), fields.get("content"),
+                fields.containsKey("tags") ? NoteJson.tags(fields) : null,
+                fields.containsKey("metadata") ? NoteJson.metadata(fields) : null)) {
+            return error(404, "No note " + id);
+        }
+        awaitIfSync(request.query);
+        return note(200, noteManager.findNoteById(id));
+    }
+
+    /**
+     * Wait for the log to reach disk when the client asked for it
+     */
+    private void awaitIfSync(Map<String, String> query) throws IOException {
+        if (!"true".equals(query.get("sync"))) {
+            return;
+        }
+        try {
+            noteManager.flush().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not write notes to disk: " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Read the next request, or return null if the client closed the
+     * connection between requests
+     */
+    private static Request readRequest(InputStream in, OutputStream out) throws IOException {
+        int[] headerBytes = { 0 };
+        String requestLine = readLine(in, headerBytes);
+        while (requestLine != null && requestLine.isEmpty()) {
+            requestLine = readLine(in, headerBytes);
+        }
+        if (requestLine == null) {
+            return null;
+        }
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3 || !parts[2].startsWith("HTTP/1.")) {
+            throw new BadRequest(400, "Malformed request line");
+        }
+        Request request = new Request();
+        request.method = parts[0];
+        String target = parts[1];
+        int q = target.indexOf('?');
+        try {
+            request.path = decode(q < 0 ? target : target.substring(0, q));
+            request.query = parseQuery(q < 0 ? null : target.substring(q + 1));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequest(400, "Malformed request target");
+        }
+
+        boolean http10 = parts[2].equals("HTTP/1.0");
+        String connection = null;
+        long length = 0;
+        boolean expectContinue = false;
+        while (true) {
+            String header = readLine(in, headerBytes);
+            if (header == null) {
+                throw new EOFException("Connection closed in headers");
+            }
+            if (header.isEmpty()) {
+                break;
+            }
+            int colon = header.indexOf(':');
+            if (colon <= 0) {
+                throw new BadRequest(400, "Malformed header");
+            }
+            String name = header.substring(0, colon).trim();
+            String value = header.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                try {
+                    length = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new BadRequest(400, "Bad Content-Length");
+                }
+            } else if (name.equalsIgnoreCase("Transfer-Encoding") && !value.equalsIgnoreCase("identity")) {
+                throw new BadRequest(501, "Chunked request bodies are not supported; send Content-Length");
+            } else if (name.equalsIgnoreCase("Connection")) {
+                connection = value;
+            } else if (name.equalsIgnoreCase("Expect") && value.equalsIgnoreCase("100-continue")) {
+                expectContinue = true;
+            }
+        }
+        request.keepAlive = http10 ? "keep-alive".equalsIgnoreCase(connection) : !"close".equalsIgnoreCase(connection);
+        if (length < 0 || length > MAX_BODY_BYTES) {
+            throw new BadRequest(413, "Request body over " + MAX_BODY_BYTES + " bytes");
+        }
+        if (length > 0) {
+            if (expectContinue) {
+                out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            }
+            byte[] body = new byte[(int) length];
+            int read = 0;
+            while (read < body.length) {
+                int n = in.read(body, read, body.length - read);
+                if (n < 0) {
+                    throw new EOFException("Connection closed in request body");
+                }
+                read += n;
+            }
+            request.body = new String(body, StandardCharsets.UTF_8);
+        }
+        return request;
+    }
+
+    /**
+     * One CRLF- or LF-terminated line, or null at end of stream before any
+     * byte of it
+     */
+    private static String readLine(InputStream in, int[] headerBytes) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                throw new EOFException("Connection closed mid-line");
+            }
+            if (++headerBytes[0] > MAX_HEADER_BYTES) {
+                throw new BadRequest(431, "Request headers too large");
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    private static void writeResponse(OutputStream out, Response response, boolean keepAlive) throws IOException {
+        StringBuilder head = new StringBuilder(128);
+        head.append("HTTP/1.1 ").append(response.status).append(' ').append(reason(response.status)).append("\r\n");
+        if (response.body != null) {
+            head.append("Content-Type: ").append(response.contentType).append("\r\n");
+        }
+        if (response.status != 204) {
+            head.append("Content-Length: ").append(response.body == null ? 0 : response.body.length).append("\r\n");
+        }
+        if (response.location != null) {
+            head.append("Location: ").append(response.location).append("\r\n");
+        }
+        if (!keepAlive) {
+            head.append("Connection: close\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (response.body != null && response.status != 204) {
+            out.write(response.body);
+        }
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 204: return "No Content";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 413: return "Payload Too Large";
+            case 431: return "Request Header Fields Too Large";
+            case 501: return "Not Implemented";
+            default: return "Internal Server Error";
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(decode(key), decode(value));
+        }
+        return params;
+    }
+
+    private static String decode(String text) {
+        try {
+            return URLDecoder.decode(text, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Filter from the tag, meta.*, from, to and q query parameters
+     */
+    private static NoteFilter filter(Map<String, String> query) {
+        NoteFilter filter = new NoteFilter().text(query.get("q"));
+        String tags = query.get("tag");
+        if (tags != null) {
+            for (String tag : tags.split(",")) {
+                filter.tag(tag);
+            }
+        }
+        for (Map.Entry<String, String> param : query.entrySet()) {
+            if (param.getKey().startsWith("meta.")) {
+                filter.metadata(param.getKey().substring("meta.".length()), param.getValue());
+            }
+        }
+        LocalDateTime from = timeParam(query, "from", false);
+        LocalDateTime to = timeParam(query, "to", true);
+        if (from != null || to != null) {
+            filter.modifiedBetween(from, to);
+        }
+        LocalDateTime createdFrom = timeParam(query, "createdFrom", false);
+        LocalDateTime createdTo = timeParam(query, "createdTo", true);
+        if (createdFrom != null || createdTo != null) {
+            filter.createdBetween(createdFrom, createdTo);
+        }
+        return filter;
+    }
+
+    /**
+     * An ISO date-time, or a date taken as its start (or, for an end, as
+     * the start of the next day)
+     */
+    private static LocalDateTime timeParam(Map<String, String> query, String name, boolean end) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            if (value.indexOf('T') >= 0) {
+                return LocalDateTime.parse(value);
+            }
+            LocalDate date = LocalDate.parse(value);
+            return (end ? date.plusDays(1) : date).atStartOfDay();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " must be a date (2024-01-31) or date-time (2024-01-31T12:00)");
+        }
+    }
+
+    private static <E extends Enum<E>> E enumParam(Class<E> type, Map<String, String> query, String name,
+            E defaultValue) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(name + " must be one of "
+                    + Arrays.toString(type.getEnumConstants()).toLowerCase());
+        }
+    }
+
+    private static int intParam(Map<String, String> query, String name, int defaultValue, int max) {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed < 0) {
+                throw new IllegalArgumentException(name + " must not be negative");
+            }
+            return Math.min(parsed, max);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad " + name + ": " + value);
+        }
+    }
+
+    private static Response note(int status, Note note) {
+        StringBuilder json = new StringBuilder(256);
+        NoteJson.writeNote(json, note);
+        return new Response(status, "application/json; charset=utf-8", json.toString());
+    }
+
+    private static Response error(int status, String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        NoteJson.quote(json, String.valueOf(message));
+        return new Response(status, "application/json; charset=utf-8", json.append('}').toString());
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("notes.port", 8080);
+        String host = System.getProperty("notes.host", "127.0.0.1");
+        NoteManager noteManager = new NoteManager();
+        NoteServer server = new NoteServer(noteManager, new InetSocketAddress(host, port));
+        // The manager flushes its log from a shutdown hook of its own
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "note-server-shutdown"));
+        server.start();
+        System.out.println("Serving " + noteManager.getNotesCount() + " notes on http://" + host + ":"
+                + server.getPort() + "/notes");
+    }
+}
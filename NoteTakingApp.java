@@ -1,17 +1,34 @@
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.LineBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.event.KeyAdapter;
-import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.TextStyle;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Main GUI application for the Note Taking App with Dark Mode Theme
  */
 public class NoteTakingApp extends JFrame {
+    private static final long serialVersionUID = 1L;
+    
     // Dark Mode Color Scheme
     private static final Color DARK_BACKGROUND = new Color(30, 30, 30);
     private static final Color DARKER_BACKGROUND = new Color(20, 20, 20);
@@ -23,21 +40,54 @@ public class NoteTakingApp extends JFrame {
     private static final Color SELECTION_COLOR = new Color(50, 100, 200);
     private static final Color BUTTON_BACKGROUND = Color.BLACK;
     private static final Color BUTTON_HOVER = new Color(40, 40, 40);
+    private static final int SEARCH_DEBOUNCE_MS = 150;
+    private static final int AUTOSAVE_IDLE_MS = 2000;
+    private static final int AUTOSAVE_MAX_DELAY_MS = 30000;
+    private static final int RANKED_RESULTS = 200;
+    private static final long EDT_STALL_NANOS = 50_000_000L;
+    private static final String[] DATE_RANGES = { "Any time", "Today", "Last 7 days", "Last 30 days", "Last 365 days" };
+    private static final int[] DATE_RANGE_DAYS = { 0, 1, 7, 30, 365 };
     
     private NoteManager noteManager;
-    private DefaultListModel<Note> listModel;
+    private NoteListModel listModel;
     private JList<Note> notesList;
     private JTextField titleField;
+    private JTextField tagsField;
     private JTextArea contentArea;
+    private NoteDocument contentDocument;
     private JTextField searchField;
+    private JComboBox<String> dateRangeBox;
     private JButton saveButton;
     private JButton deleteButton;
     private JButton newButton;
+    private JButton importButton;
+    private JButton exportButton;
+    private JButton metricsButton;
     private JLabel statusLabel;
     private Note currentNote;
+    // Set while the editor is filled programmatically, so it is not taken as an edit
+    private boolean loadingNote;
+    private NoteAutosave autosave;
+    private final DocumentListener editListener = new DocumentListener() {
+        @Override
+        public void insertUpdate(DocumentEvent e) { noteEdited(); }
+        @Override
+        public void removeUpdate(DocumentEvent e) { noteEdited(); }
+        @Override
+        public void changedUpdate(DocumentEvent e) { }
+    };
+    private Timer searchDebounce;
+    private SwingWorker<List<Note>, Void> searchWorker;
+    // -Dnotes.exitAfterStartup=true reports the time to the first paint and
+    // exits, as the launcher's class-data sharing training run
+    private boolean exitAfterFirstPaint = Boolean.getBoolean("notes.exitAfterStartup");
     
     public NoteTakingApp() {
         noteManager = new NoteManager();
+        NoteMetrics metrics = noteManager.getMetrics();
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(
+                new TimingEventQueue(metrics.timer("ui.edtDispatch"), metrics.counter("ui.edtStalls")));
+        autosave = new NoteAutosave(AUTOSAVE_IDLE_MS, AUTOSAVE_MAX_DELAY_MS, this::notesSaved);
         setupDarkTheme();
         initializeGUI();
         loadNotesList();
@@ -61,6 +111,13 @@ public class NoteTakingApp extends JFrame {
     private void initializeGUI() {
         setTitle("📝 Note Taking App - Dark Mode");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                autosave.flush();
+                noteManager.close();
+            }
+        });
         setLayout(new BorderLayout());
         getContentPane().setBackground(DARK_BACKGROUND);
         
@@ -92,19 +149,36 @@ public class NoteTakingApp extends JFrame {
         
         searchField = new JTextField();
         styleTextField(searchField);
-        searchField.addKeyListener(new KeyAdapter() {
+        // Wait for a pause in typing before searching
+        searchDebounce = new Timer(SEARCH_DEBOUNCE_MS, e -> searchNotes());
+        searchDebounce.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
             @Override
-            public void keyReleased(KeyEvent e) {
-                searchNotes();
-            }
+            public void insertUpdate(DocumentEvent e) { searchDebounce.restart(); }
+            @Override
+            public void removeUpdate(DocumentEvent e) { searchDebounce.restart(); }
+            @Override
+            public void changedUpdate(DocumentEvent e) { searchDebounce.restart(); }
         });
         
+        // Modification date filter, combined with the search text
+        dateRangeBox = new JComboBox<>(DATE_RANGES);
+        dateRangeBox.setBackground(DARK_BACKGROUND);
+        dateRangeBox.setForeground(TEXT_COLOR);
+        dateRangeBox.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 13));
+        dateRangeBox.addActionListener(e -> searchNotes());
+        JPanel datePanel = new JPanel(new BorderLayout());
+        datePanel.setBackground(DARKER_BACKGROUND);
+        datePanel.setBorder(new EmptyBorder(8, 0, 0, 0));
+        datePanel.add(dateRangeBox, BorderLayout.CENTER);
+        
         searchPanel.add(searchLabel, BorderLayout.NORTH);
         searchPanel.add(searchField, BorderLayout.CENTER);
+        searchPanel.add(datePanel, BorderLayout.SOUTH);
         searchPanel.setBorder(new EmptyBorder(0, 0, 15, 0));
         
         // Notes list with custom styling
-        listModel = new DefaultListModel<>();
+        listModel = new NoteListModel(noteManager);
         notesList = new JList<>(listModel);
         styleNotesList();
         
@@ -150,11 +224,30 @@ public class NoteTakingApp extends JFrame {
         
         titleField = new JTextField();
         styleTextField(titleField);
+        titleField.getDocument().addDocumentListener(editListener);
         titleField.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 16));
         titleField.setPreferredSize(new Dimension(0, 35));
         
+        // Tags, comma separated
+        JPanel tagsPanel = new JPanel(new BorderLayout(8, 0));
+        tagsPanel.setBackground(DARK_BACKGROUND);
+        tagsPanel.setBorder(new EmptyBorder(8, 0, 0, 0));
+        
+        JLabel tagsLabel = new JLabel("🏷️ Tags");
+        tagsLabel.setForeground(TEXT_COLOR);
+        tagsLabel.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 14));
+        
+        tagsField = new JTextField();
+        styleTextField(tagsField);
+        tagsField.getDocument().addDocumentListener(editListener);
+        tagsField.setToolTipText("Comma-separated tags; search for #tag to filter by one");
+        
+        tagsPanel.add(tagsLabel, BorderLayout.WEST);
+        tagsPanel.add(tagsField, BorderLayout.CENTER);
+        
         titlePanel.add(titleLabel, BorderLayout.NORTH);
         titlePanel.add(titleField, BorderLayout.CENTER);
+        titlePanel.add(tagsPanel, BorderLayout.SOUTH);
         titlePanel.setBorder(new EmptyBorder(0, 0, 15, 0));
         
         // Content panel with modern styling
@@ -168,6 +261,7 @@ public class NoteTakingApp extends JFrame {
         
         contentArea = new JTextArea();
         styleTextArea(contentArea);
+        showContent("");
         
         JScrollPane contentScrollPane = new JScrollPane(contentArea);
         styleScrollPane(contentScrollPane);
@@ -203,6 +297,19 @@ public class NoteTakingApp extends JFrame {
         statusLabel.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
         bottomPanel.add(statusLabel, BorderLayout.WEST);
         
+        JPanel transferPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+        transferPanel.setBackground(DARKER_BACKGROUND);
+        importButton = createStyledButton("📥 Import", Color.BLACK);
+        importButton.addActionListener(e -> importNotes());
+        exportButton = createStyledButton("📤 Export", Color.BLACK);
+        exportButton.addActionListener(e -> exportNotes());
+        metricsButton = createStyledButton("📈 Metrics", Color.BLACK);
+        metricsButton.addActionListener(e -> showMetrics());
+        transferPanel.add(importButton);
+        transferPanel.add(exportButton);
+        transferPanel.add(metricsButton);
+        bottomPanel.add(transferPanel, BorderLayout.EAST);
+        
         add(bottomPanel, BorderLayout.SOUTH);
     }
     
@@ -246,12 +353,13 @@ public class NoteTakingApp extends JFrame {
         });
         
         // Custom cell renderer for better spacing
+        EmptyBorder cellBorder = new EmptyBorder(8, 12, 8, 12);
         notesList.setCellRenderer(new DefaultListCellRenderer() {
             @Override
             public Component getListCellRendererComponent(JList<?> list, Object value, int index,
                     boolean isSelected, boolean cellHasFocus) {
                 super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
-                setBorder(new EmptyBorder(8, 12, 8, 12));
+                setBorder(cellBorder);
                 if (isSelected) {
                     setBackground(SELECTION_COLOR);
                     setForeground(Color.WHITE);
@@ -262,6 +370,10 @@ public class NoteTakingApp extends JFrame {
                 return this;
             }
         });
+        
+        // Size every row from one prototype so the list never measures all rows
+        LocalDateTime now = LocalDateTime.now();
+        notesList.setPrototypeCellValue(new Note("prototype", "Prototype note title", "", now, now));
     }
     
     private void styleScrollPane(JScrollPane scrollPane) {
@@ -306,74 +418,375 @@ public class NoteTakingApp extends JFrame {
     }
     
     private void loadNotesList() {
-        listModel.clear();
-        List<Note> notes = noteManager.getNotesSortedByDate();
-        for (Note note : notes) {
-            listModel.addElement(note);
-        }
+        listModel.showAll();
     }
     
+    /**
+     * Run the search off the EDT. A newer query cancels the one in flight,
+     * and only the latest query's results reach the list. Words written as
+     * #tag filter by tag; the rest of the query is searched as text: the
+     * best ranked matches come first, followed by any other notes that
+     * contain it as a substring. The date range box limits results by
+     * modification date.
+     */
     private void searchNotes() {
         String query = searchField.getText();
-        listModel.clear();
-        List<Note> searchResults = noteManager.searchNotes(query);
-        for (Note note : searchResults) {
-            listModel.addElement(note);
+        int days = DATE_RANGE_DAYS[Math.max(0, dateRangeBox.getSelectedIndex())];
+        if (searchWorker != null) {
+            searchWorker.cancel(true);
+            searchWorker = null;
+        }
+        if (query.trim().isEmpty() && days == 0) {
+            listModel.showAll();
+            return;
+        }
+        NoteFilter filter = parseSearch(query);
+        if (days > 0) {
+            filter.modifiedBetween(LocalDate.now().minusDays(days - 1).atStartOfDay(), null);
+        }
+        searchWorker = new SwingWorker<List<Note>, Void>() {
+            @Override
+            protected List<Note> doInBackground() {
+                if (!filter.hasText()) {
+                    return noteManager.filterNotes(filter);
+                }
+                Set<Note> results = new LinkedHashSet<>();
+                for (NoteRankedIndex.Hit hit : noteManager.searchRanked(filter, RANKED_RESULTS)) {
+                    results.add(hit.getNote());
+                }
+                results.addAll(noteManager.filterNotes(filter));
+                return new ArrayList<>(results);
+            }
+            
+            @Override
+            protected void done() {
+                if (isCancelled() || searchWorker != this) {
+                    return;
+                }
+                try {
+                    listModel.showResults(get());
+                } catch (InterruptedException | ExecutionException e) {
+                    statusLabel.setText("⚠️ Search failed: " + e.getMessage());
+                }
+            }
+        };
+        searchWorker.execute();
+    }
+    
+    private static NoteFilter parseSearch(String query) {
+        NoteFilter filter = new NoteFilter();
+        StringBuilder text = new StringBuilder();
+        for (String word : query.trim().split("\\s+")) {
+            if (word.length() > 1 && word.startsWith("#")) {
+                filter.tag(word.substring(1));
+            } else {
+                text.append(text.length() > 0 ? " " : "").append(word);
+            }
+        }
+        return filter.text(text.toString());
+    }
+    
+    private static List<String> parseTags(String text) {
+        List<String> tags = new ArrayList<>();
+        for (String tag : text.split(",")) {
+            tags.add(tag.trim().startsWith("#") ? tag.trim().substring(1) : tag);
         }
+        return tags;
     }
     
     private void loadSelectedNote() {
         Note selectedNote = notesList.getSelectedValue();
-        if (selectedNote != null) {
-            currentNote = selectedNote;
+        // Reselecting the open note, e.g. after a save, keeps the editor as it is
+        if (loadingNote || selectedNote == null
+                || (currentNote != null && currentNote.getId().equals(selectedNote.getId()))) {
+            return;
+        }
+        loadingNote = true;
+        try {
+            leaveCurrentNote();
+            if (autosave.isPending(selectedNote.getId())) {
+                // It was left with unsaved changes; save them before showing it
+                autosave.flush();
+            }
+            // Search results may hold an older version; edits must start from the latest
+            selectedNote = noteManager.findNoteById(selectedNote.getId());
+            if (selectedNote == null) {
+                return;
+            }
+            setCurrentNote(selectedNote);
             titleField.setText(selectedNote.getTitle());
-            contentArea.setText(selectedNote.getContent());
-            saveButton.setEnabled(true);
-            deleteButton.setEnabled(true);
-            statusLabel.setText("📖 Loaded: " + selectedNote.getTitle() + " (Modified: " + selectedNote.getFormattedModifiedAt() + ")");
+            tagsField.setText(String.join(", ", selectedNote.getTags()));
+            showContent(selectedNote.getContent());
+            selectCurrentNote();
+        } finally {
+            loadingNote = false;
         }
+        saveButton.setEnabled(true);
+        deleteButton.setEnabled(true);
+        statusLabel.setText("📖 Loaded: " + selectedNote.getTitle() + " (Modified: " + selectedNote.getFormattedModifiedAt() + ")");
+    }
+    
+    /**
+     * Switch the note being edited, keeping its body pinned in the
+     * manager's body cache while it is open
+     */
+    private void setCurrentNote(Note note) {
+        if (currentNote != null) {
+            noteManager.unpinNote(currentNote.getId());
+        }
+        currentNote = note;
+        if (note != null) {
+            noteManager.pinNote(note.getId());
+        }
+    }
+    
+    /**
+     * Open a body in the editor without copying it. The first chunk shows
+     * at once; the rest is appended a chunk per event so the window stays
+     * responsive while a large note loads.
+     */
+    private void showContent(String body) {
+        if (contentDocument != null) {
+            contentDocument.removeDocumentListener(editListener);
+        }
+        NoteDocument document = new NoteDocument(body);
+        contentDocument = document;
+        contentArea.setDocument(document);
+        contentArea.setCaretPosition(0);
+        document.addDocumentListener(editListener);
+        streamContent(document);
+    }
+    
+    private void streamContent(NoteDocument document) {
+        if (document.isFullyLoaded()) {
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            // Stop if another note was opened meanwhile
+            if (document == contentDocument) {
+                document.loadNextChunk();
+                streamContent(document);
+            }
+        });
     }
     
     private void createNewNote() {
-        currentNote = null;
-        titleField.setText("");
-        contentArea.setText("");
+        loadingNote = true;
+        try {
+            leaveCurrentNote();
+            setCurrentNote(null);
+            titleField.setText("");
+            tagsField.setText("");
+            showContent("");
+            notesList.clearSelection();
+        } finally {
+            loadingNote = false;
+        }
         saveButton.setEnabled(true);
         deleteButton.setEnabled(false);
         titleField.requestFocus();
         statusLabel.setText("✨ Creating new note...");
     }
     
-    private void saveCurrentNote() {
+    /**
+     * The title, tags or content changed; queue an autosave if the note
+     * now differs from what was saved
+     */
+    private void noteEdited() {
+        if (loadingNote || !isDirty()) {
+            return;
+        }
+        Object key = openNoteKey();
+        if (!autosave.isPending(key)) {
+            statusLabel.setText("✏️ Unsaved changes");
+        }
+        autosave.changed(key, this::saveOpenNote);
+    }
+    
+    /**
+     * Whether the open note differs from its saved version; a new note
+     * counts once it has a title, since it cannot be saved without one
+     */
+    private boolean isDirty() {
         String title = titleField.getText().trim();
-        String content = contentArea.getText();
-        
-        if (title.isEmpty()) {
+        if (currentNote == null) {
+            return !title.isEmpty();
+        }
+        return !title.equals(currentNote.getTitle())
+                || !Note.normalizeTags(parseTags(tagsField.getText())).equals(currentNote.getTags())
+                || contentDocument.isModified();
+    }
+    
+    /**
+     * Key of the open note's pending save: its id, or its document while
+     * it is new
+     */
+    private Object openNoteKey() {
+        return currentNote != null ? currentNote.getId() : contentDocument;
+    }
+    
+    /**
+     * Before another note opens, hand the open note's unsaved changes to
+     * the autosave scheduler as they stand, to be saved with the next batch
+     */
+    private void leaveCurrentNote() {
+        Object key = openNoteKey();
+        if (!isDirty()) {
+            autosave.cancel(key);
+            return;
+        }
+        Note note = currentNote;
+        NoteDocument document = contentDocument;
+        String title = titleField.getText().trim();
+        List<String> tags = parseTags(tagsField.getText());
+        autosave.changed(key, () -> saveNote(note, title, tags, document) != null);
+    }
+    
+    /**
+     * Autosave the note in the editor, if it changed
+     */
+    private boolean saveOpenNote() {
+        if (!isDirty()) {
+            return false;
+        }
+        Note saved = saveNote(currentNote, titleField.getText().trim(), parseTags(tagsField.getText()), contentDocument);
+        if (saved != null) {
+            setCurrentNote(saved);
+        }
+        return saved != null;
+    }
+    
+    /**
+     * Store a note's title, tags and editor document, adding the note if
+     * it is new (null). Only the changed ranges of the body are passed on,
+     * and the manager leaves an unchanged note alone. Returns the note as
+     * stored, or null if it was deleted meanwhile or changed elsewhere
+     * since {@code note}; a conflict is reported once the autosave pass is
+     * over and the document stays unsaved until it is resolved.
+     */
+    private Note saveNote(Note note, String title, List<String> tags, NoteDocument document) {
+        List<NoteEdit> edits = document.getEdits();
+        Note saved;
+        if (note == null) {
+            saved = noteManager.addNote(title, NoteEdit.apply(document.getBase(), edits), tags, null);
+        } else if (noteManager.editNote(note, title, edits, tags, null)) {
+            // Updates publish a new Note instance
+            saved = noteManager.findNoteById(note.getId());
+        } else {
+            if (noteManager.findNoteById(note.getId()) != null) {
+                SwingUtilities.invokeLater(() -> resolveConflict(note, title, tags, document));
+            }
+            return null;
+        }
+        document.saved(saved.getContent());
+        reportWriteFailures();
+        return saved;
+    }
+    
+    /**
+     * A note was changed elsewhere, e.g. through the REST server, after
+     * the editor opened it. Ask whether to overwrite it with the editor's
+     * version or to drop the editor's changes.
+     */
+    private void resolveConflict(Note note, String title, List<String> tags, NoteDocument document) {
+        if (noteManager.findNoteById(note.getId()) == null) {
+            return;
+        }
+        statusLabel.setText("⚠️ \"" + note.getTitle() + "\" was changed elsewhere; your changes are not saved");
+        Object[] options = {"Keep My Changes", "Discard My Changes"};
+        int choice = JOptionPane.showOptionDialog(this,
+                "\"" + note.getTitle() + "\" was changed elsewhere while you were editing it.\n"
+                        + "Keep your version and replace the other changes, or discard yours?",
+                "Edit Conflict", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE, null, options, options[0]);
+        // The editor may have moved on while the note waited in the autosave queue
+        boolean open = document == contentDocument;
+        if (choice == 0) {
+            if (open) {
+                title = titleField.getText().trim();
+                tags = parseTags(tagsField.getText());
+            }
+            String body = NoteEdit.apply(document.getBase(), document.getEdits());
+            if (!noteManager.updateNote(note.getId(), title, body, tags, null)) {
+                statusLabel.setText("⚠️ \"" + note.getTitle() + "\" was deleted; your changes are not saved");
+                return;
+            }
+            Note saved = noteManager.findNoteById(note.getId());
+            document.saved(saved.getContent());
+            reportWriteFailures();
+            if (open) {
+                autosave.cancel(saved.getId());
+                setCurrentNote(saved);
+            }
+            notesSaved();
+        } else if (open) {
+            Note latest = noteManager.findNoteById(note.getId());
+            if (latest == null) {
+                return;
+            }
+            loadingNote = true;
+            try {
+                autosave.cancel(latest.getId());
+                setCurrentNote(latest);
+                titleField.setText(latest.getTitle());
+                tagsField.setText(String.join(", ", latest.getTags()));
+                showContent(latest.getContent());
+            } finally {
+                loadingNote = false;
+            }
+            refreshList();
+            statusLabel.setText("📖 Reloaded: " + latest.getTitle() + " (Modified: " + latest.getFormattedModifiedAt() + ")");
+        } else {
+            statusLabel.setText("🗑️ Discarded your changes to " + note.getTitle());
+        }
+    }
+    
+    /**
+     * Save every pending change now, e.g. from the save button
+     */
+    private void saveCurrentNote() {
+        if (titleField.getText().trim().isEmpty()) {
             JOptionPane.showMessageDialog(this, "Please enter a title for the note.", "Title Required", JOptionPane.WARNING_MESSAGE);
             titleField.requestFocus();
             return;
         }
-        
-        if (currentNote == null) {
-            // Create new note
-            noteManager.addNote(title, content);
-            statusLabel.setText("✅ New note created: " + title);
-        } else {
-            // Update existing note
-            noteManager.updateNote(currentNote.getId(), title, content);
-            statusLabel.setText("✅ Note updated: " + title);
+        if (isDirty()) {
+            autosave.changed(openNoteKey(), this::saveOpenNote);
         }
-        
-        loadNotesList();
+        if (!autosave.hasPending()) {
+            statusLabel.setText("✅ No changes to save");
+            return;
+        }
+        autosave.flush();
+    }
+    
+    /**
+     * After an autosave pass wrote something: refresh the list and status
+     */
+    private void notesSaved() {
+        deleteButton.setEnabled(currentNote != null);
+        refreshList();
         updateStatus();
-        
-        // Select the saved note in the list
-        for (int i = 0; i < listModel.size(); i++) {
-            Note note = listModel.getElementAt(i);
-            if (note.getTitle().equals(title)) {
-                notesList.setSelectedIndex(i);
-                break;
-            }
+        statusLabel.setText("✅ All changes saved");
+    }
+    
+    /**
+     * Show the notes again in their new order, keeping any search, and
+     * select the open note
+     */
+    private void refreshList() {
+        if (searchField.getText().trim().isEmpty() && dateRangeBox.getSelectedIndex() <= 0) {
+            loadNotesList();
+            selectCurrentNote();
+        } else {
+            searchNotes();
+        }
+    }
+    
+    private void selectCurrentNote() {
+        int index = currentNote != null ? listModel.indexOf(currentNote) : -1;
+        if (index >= 0) {
+            notesList.setSelectedIndex(index);
+            notesList.ensureIndexIsVisible(index);
         }
     }
     
@@ -388,12 +801,20 @@ public class NoteTakingApp extends JFrame {
             );
             
             if (result == JOptionPane.YES_OPTION) {
+                autosave.cancel(currentNote.getId());
                 noteManager.deleteNote(currentNote.getId());
+                reportWriteFailures();
                 statusLabel.setText("🗑️ Note deleted: " + currentNote.getTitle());
                 
-                currentNote = null;
-                titleField.setText("");
-                contentArea.setText("");
+                loadingNote = true;
+                try {
+                    setCurrentNote(null);
+                    titleField.setText("");
+                    tagsField.setText("");
+                    showContent("");
+                } finally {
+                    loadingNote = false;
+                }
                 saveButton.setEnabled(false);
                 deleteButton.setEnabled(false);
                 
@@ -403,13 +824,197 @@ public class NoteTakingApp extends JFrame {
         }
     }
     
+    /**
+     * Import a directory of Markdown/text files or a .jsonl file
+     */
+    private void importNotes() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Import notes from a folder or .jsonl file");
+        chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path source = chooser.getSelectedFile().toPath();
+        runTransfer("Imported", transfer -> Files.isDirectory(source)
+                ? transfer.importDirectory(source)
+                : transfer.importJsonLines(source));
+    }
+    
+    /**
+     * Export all notes to a folder of Markdown files, or to a file whose
+     * name ends in .jsonl
+     */
+    private void exportNotes() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Export notes to a folder or .jsonl file");
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path target = chooser.getSelectedFile().toPath();
+        autosave.flush();
+        runTransfer("Exported", transfer -> target.toString().endsWith(".jsonl")
+                ? transfer.exportJsonLines(target)
+                : transfer.exportDirectory(target));
+    }
+    
+    private interface TransferTask {
+        int run(NoteTransfer transfer) throws IOException;
+    }
+    
+    /**
+     * Run an import or export off the EDT, showing progress in the status bar
+     */
+    private void runTransfer(String verb, TransferTask task) {
+        importButton.setEnabled(false);
+        exportButton.setEnabled(false);
+        new SwingWorker<Integer, String>() {
+            @Override
+            protected Integer doInBackground() throws Exception {
+                return task.run(new NoteTransfer(noteManager).onProgress((done, total) ->
+                    publish(verb + " " + done + (total >= 0 ? " of " + total : "") + " notes...")));
+            }
+            
+            @Override
+            protected void process(List<String> progress) {
+                statusLabel.setText(progress.get(progress.size() - 1));
+            }
+            
+            @Override
+            protected void done() {
+                importButton.setEnabled(true);
+                exportButton.setEnabled(true);
+                try {
+                    statusLabel.setText("✅ " + verb + " " + get() + " notes");
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    statusLabel.setText("⚠️ " + verb + " failed: " + cause.getMessage());
+                    JOptionPane.showMessageDialog(NoteTakingApp.this, cause.getMessage(),
+                        "Import/Export Failed", JOptionPane.ERROR_MESSAGE);
+                }
+                searchNotes();
+            }
+        }.execute();
+    }
+    
+    /**
+     * Changes are written to disk in the background; surface a failure in
+     * the status bar when it happens
+     */
+    private void reportWriteFailures() {
+        noteManager.flush().whenComplete((ignored, error) -> {
+            if (error != null) {
+                SwingUtilities.invokeLater(() ->
+                    statusLabel.setText("⚠️ Could not write notes to disk: " + error.getMessage()));
+            }
+        });
+    }
+    
+    /**
+     * Show operation timings and cache counters in a window that can stay
+     * open while the app is used
+     */
+    private void showMetrics() {
+        JTextArea report = new JTextArea(metricsReport(), 20, 80);
+        report.setEditable(false);
+        report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        report.setBackground(DARK_BACKGROUND);
+        report.setForeground(TEXT_COLOR);
+        JButton refresh = createStyledButton("🔄 Refresh", Color.BLACK);
+        refresh.addActionListener(e -> report.setText(metricsReport()));
+        
+        JDialog dialog = new JDialog(this, "Metrics", false);
+        dialog.add(new JScrollPane(report), BorderLayout.CENTER);
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.setBackground(DARKER_BACKGROUND);
+        buttons.add(refresh);
+        dialog.add(buttons, BorderLayout.SOUTH);
+        dialog.pack();
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+    
+    private String metricsReport() {
+        return noteManager.getMetrics().report() + "\nBody cache: " + noteManager.getBodyCacheStats() + "\n";
+    }
+    
+    /**
+     * Event queue that times every dispatch on the EDT. A dispatch that
+     * pumped nested events, such as one that opened a modal dialog, waited
+     * for the user rather than blocking, so it is left out.
+     */
+    private static final class TimingEventQueue extends EventQueue {
+        private final NoteMetrics.Timer dispatchTimer;
+        private final LongAdder stalls;
+        private boolean nestedDispatch;
+        
+        TimingEventQueue(NoteMetrics.Timer dispatchTimer, LongAdder stalls) {
+            this.dispatchTimer = dispatchTimer;
+            this.stalls = stalls;
+        }
+        
+        @Override
+        protected void dispatchEvent(AWTEvent event) {
+            nestedDispatch = false;
+            NoteEdtEvent jfrEvent = new NoteEdtEvent();
+            jfrEvent.begin();
+            long start = System.nanoTime();
+            try {
+                super.dispatchEvent(event);
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                if (!nestedDispatch) {
+                    dispatchTimer.record(elapsed);
+                    if (elapsed >= EDT_STALL_NANOS) {
+                        stalls.increment();
+                    }
+                    jfrEvent.end();
+                    if (jfrEvent.shouldCommit()) {
+                        jfrEvent.eventType = event.getClass().getSimpleName();
+                        jfrEvent.commit();
+                    }
+                }
+                // Tell an enclosing dispatch that it pumped this one
+                nestedDispatch = true;
+            }
+        }
+    }
+    
     private void updateStatus() {
         int count = noteManager.getNotesCount();
         if (currentNote == null && count > 0) {
-            statusLabel.setText("📊 Total notes: " + count + " | Select a note to edit or create a new one");
+            int thisWeek = noteManager.countNotes(new NoteFilter()
+                    .modifiedBetween(LocalDate.now().minusDays(6).atStartOfDay(), null));
+            statusLabel.setText("📊 Total notes: " + count + " (" + thisWeek + " edited in the last 7 days)"
+                    + " | Select a note to edit or create a new one");
         } else if (count == 0) {
             statusLabel.setText("📝 No notes found. Click 'New Note' to create your first note.");
         }
+        dateRangeBox.setToolTipText(recentActivity());
+    }
+    
+    /**
+     * Notes edited on each of the last seven days, for the date box tooltip
+     */
+    private String recentActivity() {
+        LocalDate today = LocalDate.now();
+        NoteTimeHistogram histogram = noteManager.getHistogram(NoteTimeHistogram.Field.MODIFIED,
+                NoteTimeHistogram.Unit.DAY, today.minusDays(6), today);
+        StringBuilder text = new StringBuilder("<html>Notes edited per day:");
+        for (int i = 0; i < histogram.size(); i++) {
+            text.append("<br>").append(histogram.getStart(i).getDayOfWeek().getDisplayName(TextStyle.SHORT, Locale.getDefault()))
+                    .append(' ').append(histogram.getStart(i)).append(": ").append(histogram.getCount(i));
+        }
+        return text.append("</html>").toString();
+    }
+    
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (exitAfterFirstPaint) {
+            exitAfterFirstPaint = false;
+            System.out.println("First paint after " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+            SwingUtilities.invokeLater(() -> dispatchEvent(new WindowEvent(this, WindowEvent.WINDOW_CLOSING)));
+        }
     }
     
     public static void main(String[] args) {
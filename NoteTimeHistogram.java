@@ -0,0 +1,82 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Number of notes created or modified per day or per week, as returned by
+ * {@link NoteManager#getHistogram}
+ */
+public final class NoteTimeHistogram {
+    /**
+     * Timestamp a histogram counts
+     */
+    public enum Field { CREATED, MODIFIED }
+
+    /**
+     * Bucket width; weeks start on Monday
+     */
+    public enum Unit {
+        DAY, WEEK;
+
+        /**
+         * Start of the bucket holding a date
+         */
+        public LocalDate bucketStart(LocalDate date) {
+            return this == DAY ? date : date.minusDays(date.getDayOfWeek().getValue() - DayOfWeek.MONDAY.getValue());
+        }
+
+        public LocalDate next(LocalDate start) {
+            return this == DAY ? start.plusDays(1) : start.plusWeeks(1);
+        }
+    }
+
+    private final Field field;
+    private final Unit unit;
+    private final List<LocalDate> starts;
+    private final int[] counts;
+
+    NoteTimeHistogram(Field field, Unit unit, List<LocalDate> starts, int[] counts) {
+        this.field = field;
+        this.unit = unit;
+        this.starts = Collections.unmodifiableList(new ArrayList<>(starts));
+        this.counts = counts;
+    }
+
+    public Field getField() { return field; }
+    public Unit getUnit() { return unit; }
+    public int size() { return counts.length; }
+
+    /**
+     * First day of bucket i
+     */
+    public LocalDate getStart(int i) {
+        return starts.get(i);
+    }
+
+    public int getCount(int i) {
+        return counts[i];
+    }
+
+    public List<LocalDate> getStarts() {
+        return starts;
+    }
+
+    public int getTotal() {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            text.append(String.format("%s %6d%n", starts.get(i), counts[i]));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,249 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Ordered index of note timestamps as primitive epoch longs.
+ *
+ * A treap with subtree sizes, like {@link NoteOrderIndex}, but held in
+ * parallel primitive arrays rather than node objects: each entry is a time
+ * and the slot of the note it belongs to, ordered by time and then slot.
+ * Counting the entries in a time range is two rank lookups, O(log n), so a
+ * histogram of b buckets costs O(b log n) however many notes fall in them.
+ */
+public class NoteTimeIndex {
+    private static final int NIL = -1;
+
+    private long[] times = new long[1024];
+    private int[] slots = new int[1024];
+    private int[] priorities = new int[1024];
+    private int[] sizes = new int[1024];
+    private int[] lefts = new int[1024];
+    private int[] rights = new int[1024];
+    private final Random random = new Random();
+    private int root = NIL;
+    private int allocated;
+    // Freed nodes, chained through lefts
+    private int free = NIL;
+
+    public void add(long time, int slot) {
+        root = insert(root, allocate(time, slot));
+    }
+
+    /**
+     * Remove the entry for a slot at a time; returns false if there is none
+     */
+    public boolean remove(long time, int slot) {
+        int before = size();
+        root = delete(root, time, slot);
+        return size() < before;
+    }
+
+    public void clear() {
+        root = NIL;
+        allocated = 0;
+        free = NIL;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * Number of entries earlier than a time
+     */
+    public int rank(long time) {
+        int rank = 0;
+        int node = root;
+        while (node != NIL) {
+            if (times[node] < time) {
+                rank += size(lefts[node]) + 1;
+                node = rights[node];
+            } else {
+                node = lefts[node];
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Number of entries from {@code from} (inclusive) to {@code to} (exclusive)
+     */
+    public int count(long from, long to) {
+        return from >= to ? 0 : rank(to) - rank(from);
+    }
+
+    /**
+     * Entry counts between consecutive bounds: element i counts
+     * [bounds[i], bounds[i + 1]). Bounds must be ascending.
+     */
+    public int[] histogram(long[] bounds) {
+        int[] counts = new int[Math.max(0, bounds.length - 1)];
+        int previous = bounds.length > 0 ? rank(bounds[0]) : 0;
+        for (int i = 0; i < counts.length; i++) {
+            int next = rank(bounds[i + 1]);
+            counts[i] = next - previous;
+            previous = next;
+        }
+        return counts;
+    }
+
+    /**
+     * Slots of the entries from {@code from} (inclusive) to {@code to}
+     * (exclusive), visiting only the part of the tree inside the range
+     */
+    public NoteBitmap slots(long from, long to) {
+        NoteBitmap result = new NoteBitmap();
+        if (from < to) {
+            collect(root, from, to, result);
+        }
+        return result;
+    }
+
+    /**
+     * Earliest time in the index; the index must not be empty
+     */
+    public long first() {
+        int node = root;
+        while (lefts[node] != NIL) {
+            node = lefts[node];
+        }
+        return times[node];
+    }
+
+    /**
+     * Latest time in the index; the index must not be empty
+     */
+    public long last() {
+        int node = root;
+        while (rights[node] != NIL) {
+            node = rights[node];
+        }
+        return times[node];
+    }
+
+    private void collect(int node, long from, long to, NoteBitmap result) {
+        while (node != NIL) {
+            if (times[node] < from) {
+                node = rights[node];
+            } else if (times[node] >= to) {
+                node = lefts[node];
+            } else {
+                collect(lefts[node], from, to, result);
+                result.add(slots[node]);
+                node = rights[node];
+            }
+        }
+    }
+
+    private int allocate(long time, int slot) {
+        int node;
+        if (free != NIL) {
+            node = free;
+            free = lefts[node];
+        } else {
+            if (allocated == times.length) {
+                int capacity = allocated * 2;
+                times = Arrays.copyOf(times, capacity);
+                slots = Arrays.copyOf(slots, capacity);
+                priorities = Arrays.copyOf(priorities, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+                lefts = Arrays.copyOf(lefts, capacity);
+                rights = Arrays.copyOf(rights, capacity);
+            }
+            node = allocated++;
+        }
+        times[node] = time;
+        slots[node] = slot;
+        priorities[node] = random.nextInt();
+        sizes[node] = 1;
+        lefts[node] = NIL;
+        rights[node] = NIL;
+        return node;
+    }
+
+    private int compare(long time, int slot, int node) {
+        int byTime = Long.compare(time, times[node]);
+        return byTime != 0 ? byTime : Integer.compare(slot, slots[node]);
+    }
+
+    private int insert(int node, int added) {
+        if (node == NIL) {
+            return added;
+        }
+        if (compare(times[added], slots[added], node) < 0) {
+            lefts[node] = insert(lefts[node], added);
+            if (priorities[lefts[node]] > priorities[node]) {
+                node = rotateRight(node);
+            }
+        } else {
+            rights[node] = insert(rights[node], added);
+            if (priorities[rights[node]] > priorities[node]) {
+                node = rotateLeft(node);
+            }
+        }
+        update(node);
+        return node;
+    }
+
+    private int delete(int node, long time, int slot) {
+        if (node == NIL) {
+            return NIL;
+        }
+        int cmp = compare(time, slot, node);
+        if (cmp < 0) {
+            lefts[node] = delete(lefts[node], time, slot);
+        } else if (cmp > 0) {
+            rights[node] = delete(rights[node], time, slot);
+        } else {
+            int merged = merge(lefts[node], rights[node]);
+            lefts[node] = free;
+            free = node;
+            return merged;
+        }
+        update(node);
+        return node;
+    }
+
+    private int merge(int a, int b) {
+        if (a == NIL) {
+            return b;
+        }
+        if (b == NIL) {
+            return a;
+        }
+        if (priorities[a] > priorities[b]) {
+            rights[a] = merge(rights[a], b);
+            update(a);
+            return a;
+        }
+        lefts[b] = merge(a, lefts[b]);
+        update(b);
+        return b;
+    }
+
+    private int rotateRight(int node) {
+        int pivot = lefts[node];
+        lefts[node] = rights[pivot];
+        rights[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private int rotateLeft(int node) {
+        int pivot = rights[node];
+        rights[node] = lefts[pivot];
+        lefts[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private void update(int node) {
+        sizes[node] = 1 + size(lefts[node]) + size(rights[node]);
+    }
+
+    private int size(int node) {
+        return node == NIL ? 0 : sizes[node];
+    }
+}
@@ -0,0 +1,279 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Bulk import and export of notes.
+ *
+ * Notes move in and out as a directory of Markdown or plain-text files or
+ * as a JSON Lines file with one note object per line. Imports stream their
+ * input in chunks: chunks are parsed in parallel, added to the manager in
+ * input order with {@link NoteManager#addNotes}, and only a bounded number
+ * of chunks may be parsed or waiting for the log at any time, so memory
+ * does not grow with the size of the archive. The import returns once
+ * every imported note is durable.
+ */
+public class NoteTransfer {
+    private static final int CHUNK_SIZE = 256;
+    private static final int MAX_UNWRITTEN_CHUNKS = 16;
+    private static final String MARKDOWN_TITLE = "# ";
+
+    /**
+     * Receives the number of notes processed so far and the total, or -1
+     * when the total is not known in advance
+     */
+    public interface ProgressListener {
+        void progress(long done, long total);
+    }
+
+    private final NoteManager noteManager;
+    private final int parallelism;
+    private ProgressListener progressListener = (done, total) -> { };
+
+    public NoteTransfer(NoteManager noteManager) {
+        this(noteManager, Runtime.getRuntime().availableProcessors());
+    }
+
+    public NoteTransfer(NoteManager noteManager, int parallelism) {
+        this.noteManager = noteManager;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public NoteTransfer onProgress(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * Import every .md, .markdown and .txt file below a directory. A
+     * Markdown file starting with a "# " heading uses it as the title;
+     * otherwise the file name is the title and the whole file the body.
+     */
+    public int importDirectory(Path directory) throws IOException {
+        long total;
+        try (Stream<Path> files = noteFiles(directory)) {
+            total = files.count();
+        }
+        try (Stream<Path> files = noteFiles(directory)) {
+            return importChunks(files.iterator(), NoteTransfer::readNoteFile, total);
+        }
+    }
+
+    /**
+     * Import a JSON Lines file as written by {@link #exportJsonLines}.
+     * Blank lines are skipped. Ids already in use are replaced by new ones.
+     */
+    public int importJsonLines(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Iterator<String> lines = reader.lines().iterator();
+            Iterator<Line> numbered = new Iterator<Line>() {
+                private int number;
+
+                public boolean hasNext() {
+                    return lines.hasNext();
+                }
+
+                public Line next() {
+                    return new Line(++number, lines.next());
+                }
+            };
+            return importChunks(numbered, NoteTransfer::readJsonLine, -1);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Write every note to a Markdown file in a directory, named after its
+     * title and id, with the file time set to the note's modification time
+     */
+    public int exportDirectory(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        List<Note> notes = noteManager.getNotesSortedByDate();
+        int done = 0;
+        for (Note note : notes) {
+            Path file = directory.resolve(fileName(note));
+            String text = MARKDOWN_TITLE + note.getTitle() + "\n\n" + note.scanContent();
+            Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(file, FileTime.from(note.getModifiedAt().atZone(ZoneId.systemDefault()).toInstant()));
+            reportProgress(++done, notes.size());
+        }
+        return done;
+    }
+
+    /**
+     * Write every note as one JSON object per line, newest first
+     */
+    public int exportJsonLines(Path file) throws IOException {
+        List<Note> notes = noteManager.getNotesSortedByDate();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        StringBuilder line = new StringBuilder();
+        int done = 0;
+        try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Note note : notes) {
+                line.setLength(0);
+                NoteJson.writeNote(line, note);
+                out.append(line).append('\n');
+                reportProgress(++done, notes.size());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        return done;
+    }
+
+    private interface Parser<T> {
+        Note parse(T input) throws IOException;
+    }
+
+    /**
+     * Parse chunks on a pool while adding finished chunks to the manager in
+     * order. Parsing runs at most two chunks per thread ahead, and adding
+     * waits while too many added chunks are still on their way to disk.
+     */
+    private <T> int importChunks(Iterator<T> inputs, Parser<T> parser, long total) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "note-import");
+            t.setDaemon(true);
+            return t;
+        });
+        Deque<Future<List<Note>>> parsing = new ArrayDeque<>();
+        Deque<CompletableFuture<Void>> writing = new ArrayDeque<>();
+        int imported = 0;
+        try {
+            while (inputs.hasNext() || !parsing.isEmpty()) {
+                while (inputs.hasNext() && parsing.size() < parallelism * 2) {
+                    List<T> chunk = new ArrayList<>(CHUNK_SIZE);
+                    while (inputs.hasNext() && chunk.size() < CHUNK_SIZE) {
+                        chunk.add(inputs.next());
+                    }
+                    parsing.add(pool.submit(() -> parseChunk(chunk, parser)));
+                }
+                List<Note> notes = await(parsing.poll());
+                if (writing.size() >= MAX_UNWRITTEN_CHUNKS) {
+                    await(writing.poll());
+                }
+                noteManager.addNotes(notes);
+                writing.add(noteManager.flush());
+                imported += notes.size();
+                reportProgress(imported, total);
+            }
+            while (!writing.isEmpty()) {
+                await(writing.poll());
+            }
+            return imported;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static <T> List<Note> parseChunk(List<T> chunk, Parser<T> parser) throws IOException {
+        List<Note> notes = new ArrayList<>(chunk.size());
+        for (T input : chunk) {
+            Note note = parser.parse(input);
+            if (note != null) {
+                notes.add(note);
+            }
+        }
+        return notes;
+    }
+
+    private static <V> V await(Future<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private void reportProgress(long done, long total) {
+        progressListener.progress(done, total);
+    }
+
+    private static Stream<Path> noteFiles(Path directory) throws IOException {
+        return Files.walk(directory)
+                .filter(Files::isRegularFile)
+                .filter(path -> {
+                    String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+                    return name.endsWith(".md") || name.endsWith(".markdown") || name.endsWith(".txt");
+                });
+    }
+
+    private static Note readNoteFile(Path file) throws IOException {
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        String name = file.getFileName().toString();
+        String title = name.substring(0, name.lastIndexOf('.'));
+        String content = text;
+        if (!name.toLowerCase(Locale.ROOT).endsWith(".txt") && text.startsWith(MARKDOWN_TITLE)) {
+            int end = text.indexOf('\n');
+            title = (end < 0 ? text.substring(MARKDOWN_TITLE.length()) : text.substring(MARKDOWN_TITLE.length(), end)).trim();
+            content = end < 0 ? "" : text.substring(end + 1);
+            if (content.startsWith("\r\n")) {
+                content = content.substring(2);
+            } else if (content.startsWith("\n")) {
+                content = content.substring(1);
+            }
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        LocalDateTime modifiedAt = toLocal(attributes.lastModifiedTime());
+        LocalDateTime createdAt = toLocal(attributes.creationTime());
+        if (createdAt.isAfter(modifiedAt)) {
+            createdAt = modifiedAt;
+        }
+        return new Note(NoteId.format(NoteId.next()), title, content, createdAt, modifiedAt);
+    }
+
+    private static LocalDateTime toLocal(FileTime time) {
+        return LocalDateTime.ofInstant(time.toInstant(), ZoneId.systemDefault());
+    }
+
+    private static final class Line {
+        final int number;
+        final String text;
+
+        Line(int number, String text) {
+            this.number = number;
+            this.text = text;
+        }
+    }
+
+    private static Note readJsonLine(Line line) throws IOException {
+        if (line.text.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return NoteJson.readNote(NoteJson.parseObject(line.text));
+        } catch (RuntimeException e) {
+            throw new IOException("Line " + line.number + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * File name from the title, made safe for common file systems, plus
+     * the id so that notes with the same title do not overwrite each other
+     */
+    private static String fileName(Note note) {
+        String title = safeName(note.getTitle()).trim();
+        if (title.length() > 60) {
+            title = title.substring(0, 60).trim();
+        }
+        return (title.isEmpty() ? "note" : title) + " - " + safeName(note.getId()) + ".md";
+    }
+
+    private static String safeName(String text) {
+        return text.replaceAll("[^\\p{L}\\p{N} ._-]", "_");
+    }
+}
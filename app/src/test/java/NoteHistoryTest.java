@@ -0,0 +1,86 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Rebuilding old revisions from keyframes and reverse deltas
+ */
+class NoteHistoryTest {
+    /** Enough revisions to span several keyframes, plus a partial run */
+    private static final int REVISIONS = 40;
+
+    @TempDir
+    File dir;
+
+    private NoteManager open() {
+        return new NoteManager(new NoteManagerConfig().dataDirectory(dir));
+    }
+
+    private static String body(int revision) {
+        StringBuilder body = new StringBuilder("Shopping list\n");
+        for (int i = 0; i <= revision; i++) {
+            body.append(i % 3 == 0 ? "- milk " : "- bread ").append(i).append('\n');
+        }
+        return revision % 5 == 0 ? body.reverse().toString() : body.toString();
+    }
+
+    private static void assertRevisions(NoteManager manager, String id, List<String> titles) throws Exception {
+        List<NoteHistory.Revision> revisions = manager.listRevisions(id);
+        assertEquals(titles.size(), revisions.size());
+        for (int i = 0; i < titles.size(); i++) {
+            assertEquals(i, revisions.get(i).getNumber());
+            assertEquals(titles.get(i), revisions.get(i).getTitle());
+            Note revision = manager.getRevision(id, i);
+            assertEquals(titles.get(i), revision.getTitle(), "title of revision " + i);
+            assertEquals(body(i), revision.getContent(), "body of revision " + i);
+        }
+        assertNull(manager.getRevision(id, titles.size()));
+    }
+
+    @Test
+    void everyRevisionIsRebuilt() throws Exception {
+        NoteManager manager = open();
+        String id = manager.addNote("v0", body(0)).getId();
+        List<String> titles = new ArrayList<>();
+        titles.add("v0");
+        for (int i = 1; i < REVISIONS; i++) {
+            // Some updates keep the title, some the body
+            String title = i % 4 == 0 ? titles.get(i - 1) : "v" + i;
+            assertTrue(manager.updateNote(id, title, body(i)));
+            titles.add(title);
+        }
+        assertRevisions(manager, id, titles);
+        manager.close();
+
+        manager = open();
+        assertRevisions(manager, id, titles);
+        manager.close();
+    }
+
+    @Test
+    void unchangedNoteHasNoHistory() throws Exception {
+        NoteManager manager = open();
+        String id = manager.addNote("t", "c").getId();
+        assertTrue(manager.listRevisions(id).isEmpty());
+        assertNull(manager.getRevision(id, 0));
+        manager.close();
+    }
+
+    @Test
+    void deletedNoteLosesItsHistory() throws Exception {
+        NoteManager manager = open();
+        String id = manager.addNote("t", body(0)).getId();
+        assertTrue(manager.updateNote(id, "t", body(1)));
+        assertTrue(manager.deleteNote(id));
+        manager.close();
+
+        manager = open();
+        assertTrue(manager.listRevisions(id).isEmpty());
+        manager.close();
+    }
+}
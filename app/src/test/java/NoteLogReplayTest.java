@@ -0,0 +1,110 @@
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Recovery of the note log after a crash: records replayed over a snapshot
+ * that already holds them, and a record cut off half written.
+ */
+class NoteLogReplayTest {
+    @TempDir
+    File dir;
+
+    private NoteManager open() {
+        return new NoteManager(new NoteManagerConfig().dataDirectory(dir));
+    }
+
+    /**
+     * Turn the live log into a segment waiting to be folded into the
+     * snapshot, as if the app stopped in the middle of a compaction
+     */
+    private Path pendSegment() throws Exception {
+        Path pending = new File(dir, "notes.log.compacting").toPath();
+        Files.move(new File(dir, "notes.log").toPath(), pending);
+        return pending;
+    }
+
+    @Test
+    void replayingASegmentTwiceAppliesItsEditsOnce() throws Exception {
+        NoteManager manager = open();
+        String id = manager.addNote("t", "0123456789").getId();
+        manager.close();
+        // The note itself goes into the snapshot, so only its edits are replayed
+        pendSegment();
+        open().close();
+
+        manager = open();
+        Note note = manager.findNoteById(id);
+        NoteDocument document = new NoteDocument(note.getContent());
+        document.insertString(0, "abc", null);
+        assertTrue(manager.editNote(note, "t", document.getEdits(), null, null));
+        note = manager.findNoteById(id);
+        document.saved(note.getContent());
+        document.remove(10, 3);
+        assertTrue(manager.editNote(note, "t", document.getEdits(), null, null));
+        manager.close();
+        Path pending = pendSegment();
+        byte[] segment = Files.readAllBytes(pending);
+
+        // Fold the segment into the snapshot, then crash before it is deleted
+        manager = open();
+        assertEquals("abc0123456", manager.findNoteById(id).getContent());
+        manager.close();
+        Files.write(pending, segment);
+
+        manager = open();
+        assertEquals("abc0123456", manager.findNoteById(id).getContent());
+        manager.close();
+    }
+
+    @Test
+    void tornTailIsDroppedAndLaterWritesSurvive() throws Exception {
+        NoteManager manager = open();
+        String kept = manager.addNote("kept", "first").getId();
+        manager.flush().get();
+        long intact = new File(dir, "notes.log").length();
+        String torn = manager.addNote("torn", "second").getId();
+        manager.close();
+
+        File log = new File(dir, "notes.log");
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(intact + (file.length() - intact) / 2);
+        }
+
+        manager = open();
+        assertEquals("first", manager.findNoteById(kept).getContent());
+        assertNull(manager.findNoteById(torn));
+        String added = manager.addNote("after", "third").getId();
+        manager.close();
+
+        manager = open();
+        assertEquals(2, manager.getNotesCount());
+        assertEquals("first", manager.findNoteById(kept).getContent());
+        assertEquals("third", manager.findNoteById(added).getContent());
+        manager.close();
+    }
+
+    @Test
+    void updatesAndDeletesSurviveReopen() throws Exception {
+        NoteManager manager = open();
+        String updated = manager.addNote("a", "before").getId();
+        String deleted = manager.addNote("b", "gone").getId();
+        assertTrue(manager.updateNote(updated, "a2", "after"));
+        assertTrue(manager.deleteNote(deleted));
+        manager.close();
+
+        manager = open();
+        assertEquals(1, manager.getNotesCount());
+        Note note = manager.findNoteById(updated);
+        assertEquals("a2", note.getTitle());
+        assertEquals("after", note.getContent());
+        assertNull(manager.findNoteById(deleted));
+        manager.close();
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * NoteManager under concurrent writers and readers. The same workload,
+ * scaled up and without the checks, is NoteBenchmark's concurrency scenario.
+ */
+class NoteManagerConcurrencyTest {
+    private static final int WRITERS = 8;
+    private static final int READERS = 2;
+    private static final int OPS_PER_WRITER = 2000;
+    private static final int SHARED_NOTES = 4;
+
+    @TempDir
+    File dir;
+
+    private NoteManager open() {
+        return new NoteManager(new NoteManagerConfig().dataDirectory(dir));
+    }
+
+    private static void runAll(List<Callable<Void>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Callable<Void> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void partialUpdatesKeepTheOtherField() throws Exception {
+        NoteManager manager = open();
+        String id = manager.addNote("t", "c").getId();
+        int updates = 5000;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            for (int i = 0; i < updates; i++) {
+                assertTrue(manager.updateNote(id, "t" + i, null, null, null));
+            }
+            return null;
+        });
+        tasks.add(() -> {
+            for (int i = 0; i < updates; i++) {
+                assertTrue(manager.updateNote(id, null, "c" + i, null, null));
+            }
+            return null;
+        });
+        runAll(tasks);
+
+        Note note = manager.findNoteById(id);
+        assertEquals("t" + (updates - 1), note.getTitle());
+        assertEquals("c" + (updates - 1), note.getContent());
+        manager.close();
+
+        NoteManager reopened = open();
+        note = reopened.findNoteById(id);
+        assertEquals("t" + (updates - 1), note.getTitle());
+        assertEquals("c" + (updates - 1), note.getContent());
+        reopened.close();
+    }
+
+    @Test
+    void writersReadTheirWritesAndReadersSeeSnapshots() throws Exception {
+        NoteManager manager = open();
+        List<String> shared = new ArrayList<>();
+        for (int i = 0; i < SHARED_NOTES; i++) {
+            shared.add(manager.addNote("shared " + i + " by #0", "#0 body").getId());
+        }
+        List<Map<String, Note>> expected = new ArrayList<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Callable<Void>> writers = new ArrayList<>();
+
+        for (int w = 0; w < WRITERS; w++) {
+            Map<String, Note> own = new HashMap<>();
+            expected.add(own);
+            long seed = w;
+            writers.add(() -> {
+                Random random = new Random(seed);
+                List<String> ids = new ArrayList<>();
+                for (int i = 0; i < OPS_PER_WRITER; i++) {
+                    int op = random.nextInt(10);
+                    if (op < 4 || ids.isEmpty()) {
+                        Note note = manager.addNote("w" + seed + " note " + i, "body " + i);
+                        own.put(note.getId(), note);
+                        ids.add(note.getId());
+                    } else if (op < 6) {
+                        String id = ids.get(random.nextInt(ids.size()));
+                        assertTrue(manager.updateNote(id, "w" + seed + " edit " + i, "edited " + i), "update lost " + id);
+                        own.put(id, manager.findNoteById(id));
+                    } else if (op < 7) {
+                        // Contended: every writer rewrites the same few notes
+                        String token = "#" + seed + "." + i;
+                        String id = shared.get(random.nextInt(shared.size()));
+                        assertTrue(manager.updateNote(id, "shared by " + token, token + " body"), "shared update lost " + id);
+                    } else if (op < 8) {
+                        String id = ids.remove(random.nextInt(ids.size()));
+                        assertTrue(manager.deleteNote(id), "delete lost " + id);
+                        own.remove(id);
+                        assertNull(manager.findNoteById(id), "deleted note still visible " + id);
+                    } else {
+                        String id = ids.get(random.nextInt(ids.size()));
+                        Note seen = manager.findNoteById(id);
+                        assertNotNull(seen, "own note missing " + id);
+                        assertEquals(own.get(id).getContent(), seen.getContent(), "stale read of " + id);
+                    }
+                }
+                return null;
+            });
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            try {
+                runAll(writers);
+            } finally {
+                writing.set(false);
+            }
+            return null;
+        });
+        for (int r = 0; r < READERS; r++) {
+            tasks.add(() -> {
+                do {
+                    List<Note> listing = manager.getNotesSortedByDate();
+                    Set<String> seen = new HashSet<>();
+                    for (int i = 0; i < listing.size(); i++) {
+                        assertTrue(seen.add(listing.get(i).getId()), "duplicate in listing");
+                        assertFalse(i > 0 && listing.get(i).getModifiedAt().isAfter(listing.get(i - 1).getModifiedAt()),
+                                "listing out of order");
+                    }
+                    for (String id : shared) {
+                        // A copy-on-write note never mixes two writes
+                        Note note = manager.findNoteById(id);
+                        String title = note.getTitle();
+                        assertEquals(title.substring(title.lastIndexOf(' ') + 1) + " body", note.getContent(),
+                                "torn read of " + id);
+                    }
+                    for (Note note : manager.searchNotes("edit")) {
+                        assertTrue(note.getTitle().contains("edit") || note.getContent().contains("edit"),
+                                "search returned a non-match");
+                    }
+                } while (writing.get());
+                return null;
+            });
+        }
+        runAll(tasks);
+
+        Map<String, Note> all = new HashMap<>();
+        for (Map<String, Note> own : expected) {
+            all.putAll(own);
+        }
+        for (String id : shared) {
+            all.put(id, manager.findNoteById(id));
+        }
+        assertState(manager, all);
+        manager.close();
+        NoteManager reopened = open();
+        assertState(reopened, all);
+        reopened.close();
+    }
+
+    private static void assertState(NoteManager manager, Map<String, Note> expected) {
+        assertEquals(expected.size(), manager.getNotesCount());
+        assertEquals(expected.size(), manager.getNotesSortedByDate().size(), "sorted view out of sync");
+        for (Note note : expected.values()) {
+            Note actual = manager.findNoteById(note.getId());
+            assertNotNull(actual, "missing " + note.getId());
+            assertEquals(note.getTitle(), actual.getTitle());
+            assertEquals(note.getContent(), actual.getContent());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * {@link notebench.Workload} over a NoteManager filled with the notes of
+ * {@link NoteBenchmark#generateNotes}: log-normal body lengths over a
+ * Zipfian vocabulary. Queries, titles and bodies are generated up front,
+ * so the timed operations only pick the next one.
+ */
+public class NoteWorkload implements notebench.Workload {
+    private static final int PREPARED = 1024;
+
+    private File dir;
+    private NoteManager manager;
+    private List<Note> notes;
+    // A copy of the manager's snapshot that nothing writes to, for loading
+    private File store;
+    private File snapshot;
+    private final List<String> ids = new ArrayList<>();
+    private final String[] queries = new String[PREPARED];
+    private final String[] titles = new String[PREPARED];
+    private final String[] bodies = new String[PREPARED];
+    private Random random;
+    private int next;
+
+    @Override
+    public void setUp(int size, String queryType) throws Exception {
+        random = new Random(size);
+        dir = java.nio.file.Files.createTempDirectory("note-jmh").toFile();
+        store = new File(dir, "store");
+        store.mkdir();
+        notes = NoteBenchmark.generateNotes(size, random);
+        snapshot = new File(store, "notes.dat");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(snapshot), 1 << 16)) {
+            NoteCodec.writeSnapshot(out, notes);
+        }
+        java.nio.file.Files.copy(snapshot.toPath(), new File(dir, "notes.dat").toPath());
+        manager = new NoteManager(new NoteManagerConfig().dataDirectory(dir));
+        for (Note note : manager.getAllNotes()) {
+            ids.add(note.getId());
+        }
+        for (int i = 0; i < PREPARED; i++) {
+            queries[i] = NoteBenchmark.randomQuery(random, queryType);
+            titles[i] = NoteBenchmark.randomTitle(random, size + i);
+            bodies[i] = NoteBenchmark.randomBody(random);
+        }
+        // Build the lazily built indexes before anything is timed
+        manager.searchNotes("warm");
+        manager.searchRanked("warm", 1);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        manager.close();
+        delete(dir);
+    }
+
+    @Override
+    public Object findById() {
+        return manager.findNoteById(ids.get(random.nextInt(ids.size())));
+    }
+
+    @Override
+    public Object addThenDelete() {
+        int i = next();
+        Note note = manager.addNote(titles[i], bodies[i]);
+        return manager.deleteNote(note.getId());
+    }
+
+    @Override
+    public Object update() {
+        int i = next();
+        return manager.updateNote(ids.get(random.nextInt(ids.size())), titles[i], bodies[i]);
+    }
+
+    @Override
+    public Object searchNotes() {
+        return manager.searchNotes(queries[next()]);
+    }
+
+    @Override
+    public Object searchRanked() {
+        return manager.searchRanked(queries[next()], 20);
+    }
+
+    @Override
+    public Object listSorted() {
+        return manager.getNotesSortedByDate();
+    }
+
+    @Override
+    public Object listPage() {
+        return manager.getNotesSortedByDate(random.nextInt(ids.size()), 50);
+    }
+
+    @Override
+    public Object updateAndFlush() throws Exception {
+        Object updated = update();
+        manager.flush().get();
+        return updated;
+    }
+
+    @Override
+    public Object saveSnapshot() throws Exception {
+        File file = new File(dir, "bench.dat");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            NoteCodec.writeSnapshot(out, notes);
+        }
+        return file.length();
+    }
+
+    @Override
+    public Object loadSnapshot(boolean lazyBodies) throws Exception {
+        return NoteCodec.readSnapshot(snapshot, lazyBodies);
+    }
+
+    @Override
+    public Object reopen() throws Exception {
+        NoteManager reopened = new NoteManager(new NoteManagerConfig().dataDirectory(store));
+        int count = reopened.getNotesCount();
+        reopened.close();
+        return count;
+    }
+
+    private int next() {
+        next = (next + 1) & (PREPARED - 1);
+        return next;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,61 @@
+package notebench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Lookups, writes and listing against corpora of 1k to 1M notes.
+ *
+ * Reports throughput and, from sampled calls, latency percentiles. Run
+ * with {@code -prof gc} for the allocation rate and bytes per operation,
+ * and narrow the sizes with e.g. {@code -p size=1000,10000}.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ManagerBenchmark {
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int size;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workload.create();
+        workload.setUp(size, "common");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public Object findNoteById() {
+        return workload.findById();
+    }
+
+    @Benchmark
+    public Object addThenDeleteNote() {
+        return workload.addThenDelete();
+    }
+
+    @Benchmark
+    public Object updateNote() {
+        return workload.update();
+    }
+
+    @Benchmark
+    public Object sortedPage() {
+        return workload.listPage();
+    }
+
+    @Benchmark
+    public Object sortedFull() {
+        return workload.listSorted();
+    }
+}
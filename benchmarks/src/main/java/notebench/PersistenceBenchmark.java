@@ -0,0 +1,59 @@
+package notebench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Persistence round trips: writing and reading a snapshot with bodies
+ * decoded or left mapped, opening a manager on a saved snapshot, and a
+ * single update made durable through the log.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class PersistenceBenchmark {
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int size;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workload.create();
+        workload.setUp(size, "common");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public Object saveSnapshot() throws Exception {
+        return workload.saveSnapshot();
+    }
+
+    @Benchmark
+    public Object loadSnapshot() throws Exception {
+        return workload.loadSnapshot(false);
+    }
+
+    @Benchmark
+    public Object loadSnapshotLazy() throws Exception {
+        return workload.loadSnapshot(true);
+    }
+
+    @Benchmark
+    public Object reopen() throws Exception {
+        return workload.reopen();
+    }
+
+    @Benchmark
+    public Object updateAndFlush() throws Exception {
+        return workload.updateAndFlush();
+    }
+}
@@ -0,0 +1,48 @@
+package notebench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Substring and ranked search over a query mix: frequent words, rare
+ * words, two-word phrases, two-letter prefixes, misspelled words and words
+ * no note contains. Queries are drawn from the same Zipfian vocabulary as
+ * the note bodies.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int size;
+
+    @Param({ "common", "rare", "phrase", "short", "typo", "miss" })
+    public String queryType;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workload.create();
+        workload.setUp(size, queryType);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public Object searchNotes() {
+        return workload.searchNotes();
+    }
+
+    @Benchmark
+    public Object searchRanked() {
+        return workload.searchRanked();
+    }
+}
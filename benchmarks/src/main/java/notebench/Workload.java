@@ -0,0 +1,72 @@
+package notebench;
+
+/**
+ * The operations the benchmarks time, implemented by {@code NoteWorkload}.
+ *
+ * JMH does not accept benchmarks in the default package, and classes in a
+ * named package cannot refer to the app's classes, which sit in the
+ * default package. The benchmarks therefore drive the app through this
+ * interface, and the implementation is loaded by name once per trial.
+ */
+public interface Workload {
+    /**
+     * A fresh workload for one trial
+     */
+    static Workload create() {
+        try {
+            return (Workload) Class.forName("NoteWorkload").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("NoteWorkload is not on the class path", e);
+        }
+    }
+
+    /**
+     * Open a manager in a temporary directory holding {@code size}
+     * generated notes, and generate the queries and notes the operations
+     * use. Query types are those of {@code NoteBenchmark}: common, rare,
+     * phrase, short, typo and miss.
+     */
+    void setUp(int size, String queryType) throws Exception;
+
+    /**
+     * Close the manager and delete the directory
+     */
+    void tearDown() throws Exception;
+
+    Object findById();
+
+    /**
+     * Add a note and delete it again, so the corpus keeps its size
+     */
+    Object addThenDelete();
+
+    Object update();
+
+    Object searchNotes();
+
+    Object searchRanked();
+
+    Object listSorted();
+
+    Object listPage();
+
+    /**
+     * Update a note and wait until the change is durable
+     */
+    Object updateAndFlush() throws Exception;
+
+    /**
+     * Write the notes to a snapshot file
+     */
+    Object saveSnapshot() throws Exception;
+
+    /**
+     * Read back the snapshot written in {@link #setUp}
+     */
+    Object loadSnapshot(boolean lazyBodies) throws Exception;
+
+    /**
+     * Open a manager on a copy of the snapshot and close it again
+     */
+    Object reopen() throws Exception;
+}
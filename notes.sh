@@ -0,0 +1,44 @@
+#!/bin/sh
+# Launch NoteTakingApp with an application class-data sharing (AppCDS)
+# archive, so the JVM maps the classes a startup needs instead of loading,
+# parsing and verifying them one by one.
+#
+# The first launch compiles the sources into build/notes.jar, runs the app
+# once with -Dnotes.exitAfterStartup=true to record the classes loaded up to
+# the first paint, and dumps them into build/notes.jsa. The jar and the
+# archive are rebuilt when a source file changes. Arguments are passed to
+# the JVM, e.g.
+#
+#   ./notes.sh -Dnotes.dir=$HOME/notes -Dnotes.lazyBodies=true
+set -e
+
+DIR=$(cd "$(dirname "$0")" && pwd)
+BUILD="$DIR/build"
+JAR="$BUILD/notes.jar"
+CLASSLIST="$BUILD/notes.classlist"
+ARCHIVE="$BUILD/notes.jsa"
+
+if [ ! -f "$JAR" ] || [ -n "$(find "$DIR" -maxdepth 1 -name '*.java' -newer "$JAR")" ]; then
+    rm -rf "$BUILD/classes"
+    mkdir -p "$BUILD/classes"
+    javac -encoding UTF-8 -d "$BUILD/classes" "$DIR"/*.java
+    jar --create --file "$JAR" --main-class NoteTakingApp -C "$BUILD/classes" .
+    rm -f "$ARCHIVE"
+fi
+
+if [ ! -f "$ARCHIVE" ]; then
+    echo "Creating class-data sharing archive $ARCHIVE"
+    # Without an archive the app still starts, just without the speedup
+    if ! java -Xshare:off -XX:DumpLoadedClassList="$CLASSLIST" -Dnotes.exitAfterStartup=true "$@" \
+            -cp "$JAR" NoteTakingApp \
+        || ! java -Xshare:dump -XX:SharedClassListFile="$CLASSLIST" -XX:SharedArchiveFile="$ARCHIVE" \
+            -cp "$JAR"; then
+        echo "Could not create $ARCHIVE; starting without it" >&2
+        rm -f "$ARCHIVE"
+    fi
+fi
+
+if [ -f "$ARCHIVE" ]; then
+    exec java -XX:SharedArchiveFile="$ARCHIVE" "$@" -cp "$JAR" NoteTakingApp
+fi
+exec java "$@" -cp "$JAR" NoteTakingApp